@@ -0,0 +1,369 @@
+package com.africapoa.fn.ds;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A compact binary encoding of document trees, read back lazily.
+ * <p>
+ * Layout: the magic bytes {@code JQB1}, a dictionary of every object key (count, then each key
+ * as a length-prefixed UTF-8 string), then the root value. Each value starts with a tag byte:
+ * null, false, true, a whole number as a zig-zag varint, any other number as an 8-byte double,
+ * a length-prefixed UTF-8 string, or an object or array. Objects and arrays carry the byte
+ * length of their body, then their element count, then their entries as dictionary key ids
+ * followed by values.
+ * </p>
+ * <p>
+ * Reading does not decode the tree up front: objects and arrays come back as read-only views
+ * that index their own level on first access and decode each child when it is first read, so
+ * loading costs next to nothing and untouched subtrees are never decoded.
+ * </p>
+ */
+final class BinaryJson {
+    private static final byte[] MAGIC = {'J', 'Q', 'B', '1'};
+    private static final byte NULL = 0, FALSE = 1, TRUE = 2, WHOLE = 3, DOUBLE = 4, STRING = 5, OBJECT = 6, ARRAY = 7;
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    private final ByteBuffer in;
+    private final String[] keys;
+
+    private BinaryJson(ByteBuffer in, String[] keys) {
+        this.in = in;
+        this.keys = keys;
+    }
+
+    /**
+     * Encodes a document tree.
+     *
+     * @param root the root of the tree
+     * @param out  where to write the encoding; not closed
+     * @throws IOException if writing fails
+     */
+    static void write(Object root, OutputStream out) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        Sink body = new Sink();
+        body.value(root, dictionary);
+        Sink header = new Sink();
+        header.bytes(MAGIC, MAGIC.length);
+        header.varint(dictionary.size());
+        for (String key : dictionary.keySet()) header.string(key);
+        out.write(header.buffer, 0, header.size);
+        out.write(body.buffer, 0, body.size);
+    }
+
+    /**
+     * Opens an encoded document.
+     *
+     * @param in the encoding, from position 0; must not be modified while the document is in use
+     * @return the root value, objects and arrays as lazily decoded read-only views
+     * @throws IllegalArgumentException if the bytes are not a binary document
+     */
+    static Object read(ByteBuffer in) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (in.limit() <= i || in.get(i) != MAGIC[i]) throw new IllegalArgumentException("Not a binary JsonQ document");
+        }
+        Cursor cursor = new Cursor(MAGIC.length);
+        String[] keys = new String[varint(in, cursor)];
+        for (int i = 0; i < keys.length; i++) keys[i] = string(in, cursor);
+        return new BinaryJson(in, keys).value(cursor);
+    }
+
+    private Object value(Cursor cursor) {
+        byte tag = in.get(cursor.pos++);
+        switch (tag) {
+            case NULL: return null;
+            case FALSE: return Boolean.FALSE;
+            case TRUE: return Boolean.TRUE;
+            case WHOLE: {
+                long zigzag = varlong(in, cursor);
+                return (double) ((zigzag >>> 1) ^ -(zigzag & 1));
+            }
+            case DOUBLE: {
+                double d = in.getDouble(cursor.pos);
+                cursor.pos += 8;
+                return d;
+            }
+            case STRING: return string(in, cursor);
+            case OBJECT: return new LazyMap(skipContainer(cursor));
+            case ARRAY: return new LazyList(skipContainer(cursor));
+            default: throw new IllegalArgumentException("Unknown tag " + tag + " at byte " + (cursor.pos - 1));
+        }
+    }
+
+    /** Moves past a container body, returning where the body starts. */
+    private int skipContainer(Cursor cursor) {
+        int length = in.getInt(cursor.pos);
+        int body = cursor.pos + 4;
+        cursor.pos = body + length;
+        return body;
+    }
+
+    private void skip(Cursor cursor) {
+        byte tag = in.get(cursor.pos++);
+        switch (tag) {
+            case WHOLE: varlong(in, cursor); break;
+            case DOUBLE: cursor.pos += 8; break;
+            case STRING: {
+                int length = varint(in, cursor);
+                cursor.pos += length;
+                break;
+            }
+            case OBJECT: case ARRAY: skipContainer(cursor); break;
+            default: break;
+        }
+    }
+
+    private static int varint(ByteBuffer in, Cursor cursor) {
+        return (int) varlong(in, cursor);
+    }
+
+    private static long varlong(ByteBuffer in, Cursor cursor) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get(cursor.pos++);
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static String string(ByteBuffer in, Cursor cursor) {
+        int length = varint(in, cursor);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = in.get(cursor.pos + i);
+        cursor.pos += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** A read position, one per decoding pass so views can decode from several threads. */
+    private static final class Cursor {
+        private int pos;
+
+        private Cursor(int pos) { this.pos = pos; }
+    }
+
+    /** The entries of an encoded object, indexed on first access. */
+    private final class LazyMap extends AbstractMap<String, Object> {
+        private final int body;
+        private volatile Level level;
+
+        private LazyMap(int body) { this.body = body; }
+
+        private Level level() {
+            Level l = level;
+            if (l == null) level = l = new Level(body, true);
+            return l;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int i = level().find(key);
+            return i < 0 ? null : level().value(i);
+        }
+
+        @Override
+        public boolean containsKey(Object key) { return level().find(key) >= 0; }
+
+        @Override
+        public int size() { return level().size(); }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Level l = level();
+                    return new Iterator<Entry<String, Object>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() { return next < l.size(); }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            int i = next++;
+                            return new SimpleImmutableEntry<>(keys[l.keyIds[i]], l.value(i));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() { return level().size(); }
+            };
+        }
+    }
+
+    /** The elements of an encoded array, indexed on first access. */
+    private final class LazyList extends AbstractList<Object> implements RandomAccess {
+        private final int body;
+        private volatile Level level;
+
+        private LazyList(int body) { this.body = body; }
+
+        private Level level() {
+            Level l = level;
+            if (l == null) level = l = new Level(body, false);
+            return l;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            return level().value(index);
+        }
+
+        @Override
+        public int size() { return level().size(); }
+    }
+
+    /** One decoded level: where each child starts, and the children decoded so far. */
+    private final class Level {
+        private final int[] keyIds;
+        private final int[] offsets;
+        private final Object[] values;
+        private final boolean[] decoded;
+        private Map<String, Integer> positions;
+
+        private Level(int body, boolean keyed) {
+            Cursor cursor = new Cursor(body);
+            int count = varint(in, cursor);
+            keyIds = keyed ? new int[count] : null;
+            offsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (keyed) keyIds[i] = varint(in, cursor);
+                offsets[i] = cursor.pos;
+                skip(cursor);
+            }
+            values = new Object[count];
+            decoded = new boolean[count];
+            if (keyed && count > LINEAR_SCAN_LIMIT) {
+                positions = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) positions.putIfAbsent(keys[keyIds[i]], i);
+            }
+        }
+
+        int size() { return offsets.length; }
+
+        int find(Object key) {
+            if (positions != null) {
+                Integer i = positions.get(key);
+                return i == null ? -1 : i;
+            }
+            for (int i = 0; i < keyIds.length; i++) if (keys[keyIds[i]].equals(key)) return i;
+            return -1;
+        }
+
+        synchronized Object value(int i) {
+            if (!decoded[i]) {
+                values[i] = BinaryJson.this.value(new Cursor(offsets[i]));
+                decoded[i] = true;
+            }
+            return values[i];
+        }
+    }
+
+    /**
+     * A growable output buffer that can patch container lengths once they are known. Keys get
+     * dictionary ids as they are first written.
+     */
+    private static final class Sink {
+        private byte[] buffer = new byte[1024];
+        private int size;
+
+        void value(Object value, Map<String, Integer> dictionary) {
+            if (value == null) {
+                tag(NULL);
+            } else if (value instanceof Boolean) {
+                tag((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Number) {
+                double d = ((Number) value).doubleValue();
+                if (d == Math.rint(d) && Math.abs(d) <= (1L << 53) && !(d == 0 && 1 / d < 0)) {
+                    tag(WHOLE);
+                    long l = (long) d;
+                    varint((l << 1) ^ (l >> 63));
+                } else {
+                    tag(DOUBLE);
+                    ensure(8);
+                    long bits = Double.doubleToLongBits(d);
+                    for (int shift = 56; shift >= 0; shift -= 8) buffer[size++] = (byte) (bits >>> shift);
+                }
+            } else if (value instanceof Map<?, ?>) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                int body = open(OBJECT);
+                varint(map.size());
+                for (Map.Entry<?, ?> e : map.entrySet()) {
+                    varint(dictionary.computeIfAbsent(String.valueOf(e.getKey()), key -> dictionary.size()));
+                    value(e.getValue(), dictionary);
+                }
+                close(body);
+            } else if (value instanceof List<?>) {
+                List<?> list = (List<?>) value;
+                int body = open(ARRAY);
+                varint(list.size());
+                for (Object element : list) value(element, dictionary);
+                close(body);
+            } else if (value instanceof String) {
+                tag(STRING);
+                string((String) value);
+            } else {
+                value(PojoView.view(value), dictionary);
+            }
+        }
+
+        private int open(byte tag) {
+            tag(tag);
+            ensure(4);
+            size += 4;
+            return size;
+        }
+
+        private void close(int body) {
+            int length = size - body;
+            for (int i = 0; i < 4; i++) buffer[body - 4 + i] = (byte) (length >>> (24 - 8 * i));
+        }
+
+        private void tag(byte tag) {
+            ensure(1);
+            buffer[size++] = tag;
+        }
+
+        void string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            bytes(bytes, bytes.length);
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void bytes(byte[] bytes, int length) {
+            ensure(length);
+            System.arraycopy(bytes, 0, buffer, size, length);
+            size += length;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.africapoa.fn.ds;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A typed column vector of a {@link ColumnTable}.
+ * <p>
+ * Each column stores its values in a primitive array where it can, with missing values
+ * tracked in a null bitmap. Reads box values back into the same types a parsed document
+ * holds (Double, String, Boolean), so a column looks like the field it was built from.
+ * </p>
+ * <p>
+ * Filters run over the whole array at once and produce a selection bitmap, one bit per row.
+ * Numeric comparisons against a number are reduced to a range test and evaluated 64 rows per
+ * bitmap word in loops without branches, a shape HotSpot compiles to SIMD instructions.
+ * </p>
+ */
+abstract class Column {
+    final int size;
+    final long[] nulls;
+
+    private Column(int size, long[] nulls) {
+        this.size = size;
+        this.nulls = nulls;
+    }
+
+    /**
+     * Builds the tightest column able to hold the given values.
+     *
+     * @param values the field values, one per row, null where a row has no value
+     * @return an int, long, double, string, boolean or object column
+     */
+    static Column of(Object[] values) {
+        int size = values.length;
+        long[] nulls = new long[(size + 63) >>> 6];
+        boolean numbers = true, ints = true, longs = true, strings = true, booleans = true;
+        int present = 0;
+        for (int i = 0; i < size; i++) {
+            Object v = values[i];
+            if (v == null) {
+                nulls[i >>> 6] |= 1L << i;
+                continue;
+            }
+            present++;
+            strings &= v instanceof String;
+            booleans &= v instanceof Boolean;
+            if (numbers &= v instanceof Double) {
+                double d = (Double) v;
+                longs &= d == Math.rint(d) && Math.abs(d) <= (1L << 53);
+                ints &= longs && d >= Integer.MIN_VALUE && d <= Integer.MAX_VALUE;
+            }
+        }
+        if (numbers && present > 0) {
+            return ints ? new Ints(values, nulls) : longs ? new Longs(values, nulls) : new Doubles(values, nulls);
+        }
+        return strings ? new Strings(values, nulls)
+                : booleans ? new Booleans(values, nulls)
+                : new Mixed(values, nulls);
+    }
+
+    /**
+     * Builds a column where every row is missing.
+     *
+     * @param size the number of rows
+     * @return a column of nulls
+     */
+    static Column empty(int size) {
+        return of(new Object[size]);
+    }
+
+    final boolean isNull(int row) {
+        return (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Returns the value of a row boxed the way a parsed document would hold it.
+     *
+     * @param row the row index
+     * @return the value, or null if the row has none
+     */
+    abstract Object get(int row);
+
+    /**
+     * Tests every row against a comparison.
+     *
+     * @param comparison the comparison to run
+     * @return the selection bitmap of the rows that pass; rows without a value never do
+     */
+    long[] select(Comparison comparison) {
+        long[] selected = new long[nulls.length];
+        for (int i = 0; i < size; i++) {
+            if (comparison.test(get(i))) selected[i >>> 6] |= 1L << i;
+        }
+        return selected;
+    }
+
+    /**
+     * Gathers the given rows into a new column.
+     *
+     * @param rows  the row indexes to keep, in output order
+     * @param count how many of the indexes to use
+     * @return a column of {@code count} rows
+     */
+    Column take(int[] rows, int count) {
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) values[i] = get(rows[i]);
+        return of(values);
+    }
+
+    static boolean isSelected(long[] bitmap, int row) {
+        return (bitmap[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Finds the rows whose value can take part in an expression.
+     *
+     * @return the selection bitmap of the rows holding a primitive value
+     */
+    long[] present() {
+        long[] present = new long[nulls.length];
+        for (int w = 0; w < present.length; w++) present[w] = ~nulls[w];
+        if ((size & 63) != 0 && present.length > 0) present[present.length - 1] &= (1L << size) - 1;
+        return present;
+    }
+
+    /**
+     * Numbers stored in a primitive array, which comparisons against a number read without boxing.
+     */
+    abstract static class Numeric extends Column {
+
+        private Numeric(int size, long[] nulls) {
+            super(size, nulls);
+        }
+
+        /**
+         * Returns a row value without boxing. Only valid for non-null rows.
+         *
+         * @param row the row index
+         * @return the value
+         */
+        abstract double number(int row);
+
+        /**
+         * Sets the bits of the rows whose value lies in {@code [low, high]}, null rows included.
+         * Bounds of NaN select nothing.
+         */
+        abstract void selectBetween(double low, double high, long[] selected);
+
+        @Override
+        long[] select(Comparison comparison) {
+            long[] selected = selectRange(comparison);
+            return selected != null ? selected : super.select(comparison);
+        }
+
+        /**
+         * Selects the non-null rows that pass a comparison, for the comparisons that can be
+         * answered by a range test.
+         *
+         * @return the selection bitmap, or null if the comparison must be tested row by row
+         */
+        private long[] selectRange(Comparison comparison) {
+            if (!(comparison.operand instanceof Double)) return null;
+            double x = (Double) comparison.operand;
+            long[] selected = new long[nulls.length];
+            switch (comparison.op) {
+                case "==": selectBetween(x, x, selected); break;
+                case "!=": selectBetween(x, x, selected); invert(selected); break;
+                case ">": selectBetween(x == Double.POSITIVE_INFINITY ? Double.NaN : Math.nextUp(x), Double.POSITIVE_INFINITY, selected); break;
+                case ">=": selectBetween(x, Double.POSITIVE_INFINITY, selected); break;
+                case "<": selectBetween(Double.NEGATIVE_INFINITY, x == Double.NEGATIVE_INFINITY ? Double.NaN : Math.nextDown(x), selected); break;
+                case "<=": selectBetween(Double.NEGATIVE_INFINITY, x, selected); break;
+                default: return null;
+            }
+            for (int w = 0; w < selected.length; w++) selected[w] &= ~nulls[w];
+            return selected;
+        }
+
+        /** Flips every bit of a bitmap that stands for a row. */
+        private void invert(long[] selected) {
+            for (int w = 0; w < selected.length; w++) selected[w] = ~selected[w];
+            if ((size & 63) != 0 && selected.length > 0) selected[selected.length - 1] &= (1L << size) - 1;
+        }
+    }
+
+    /** Integral numbers that fit an int. */
+    static final class Ints extends Numeric {
+        final int[] values;
+
+        private Ints(Object[] source, long[] nulls) {
+            super(source.length, nulls);
+            values = new int[size];
+            for (int i = 0; i < size; i++) if (source[i] != null) values[i] = (int) (double) (Double) source[i];
+        }
+
+        @Override
+        Object get(int row) { return isNull(row) ? null : (Object) (double) values[row]; }
+
+        @Override
+        double number(int row) { return values[row]; }
+
+        @Override
+        void selectBetween(double low, double high, long[] selected) {
+            for (int w = 0; w < selected.length; w++) {
+                int from = w << 6, to = Math.min(from + 64, size);
+                long word = 0;
+                for (int i = from; i < to; i++) word |= (values[i] >= low & values[i] <= high ? 1L : 0L) << (i - from);
+                selected[w] = word;
+            }
+        }
+    }
+
+    /** Integral numbers that need a long but still convert to double exactly. */
+    static final class Longs extends Numeric {
+        final long[] values;
+
+        private Longs(Object[] source, long[] nulls) {
+            super(source.length, nulls);
+            values = new long[size];
+            for (int i = 0; i < size; i++) if (source[i] != null) values[i] = (long) (double) (Double) source[i];
+        }
+
+        @Override
+        Object get(int row) { return isNull(row) ? null : (Object) (double) values[row]; }
+
+        @Override
+        double number(int row) { return values[row]; }
+
+        @Override
+        void selectBetween(double low, double high, long[] selected) {
+            for (int w = 0; w < selected.length; w++) {
+                int from = w << 6, to = Math.min(from + 64, size);
+                long word = 0;
+                for (int i = from; i < to; i++) word |= (values[i] >= low & values[i] <= high ? 1L : 0L) << (i - from);
+                selected[w] = word;
+            }
+        }
+    }
+
+    /** Any other numbers. */
+    static final class Doubles extends Numeric {
+        final double[] values;
+
+        private Doubles(Object[] source, long[] nulls) {
+            super(source.length, nulls);
+            values = new double[size];
+            for (int i = 0; i < size; i++) if (source[i] != null) values[i] = (Double) source[i];
+        }
+
+        @Override
+        Object get(int row) { return isNull(row) ? null : (Object) values[row]; }
+
+        @Override
+        double number(int row) { return values[row]; }
+
+        @Override
+        void selectBetween(double low, double high, long[] selected) {
+            for (int w = 0; w < selected.length; w++) {
+                int from = w << 6, to = Math.min(from + 64, size);
+                long word = 0;
+                for (int i = from; i < to; i++) word |= (values[i] >= low & values[i] <= high ? 1L : 0L) << (i - from);
+                selected[w] = word;
+            }
+        }
+    }
+
+    /** Dictionary encoded strings, each distinct value is stored once. */
+    static final class Strings extends Column {
+        final int[] codes;
+        final String[] dictionary;
+
+        private Strings(Object[] source, long[] nulls) {
+            super(source.length, nulls);
+            codes = new int[size];
+            Map<String, Integer> seen = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                if (source[i] == null) continue;
+                Integer code = seen.putIfAbsent((String) source[i], seen.size());
+                codes[i] = code == null ? seen.size() - 1 : code;
+            }
+            dictionary = new String[seen.size()];
+            for (Map.Entry<String, Integer> e : seen.entrySet()) dictionary[e.getValue()] = e.getKey();
+        }
+
+        @Override
+        Object get(int row) { return isNull(row) ? null : dictionary[codes[row]]; }
+
+        @Override
+        long[] select(Comparison comparison) {
+            // null rows hold code 0, which must exist even when every row is null
+            boolean[] passes = new boolean[Math.max(dictionary.length, 1)];
+            for (int c = 0; c < dictionary.length; c++) passes[c] = comparison.test(dictionary[c]);
+            long[] selected = new long[nulls.length];
+            for (int w = 0; w < selected.length; w++) {
+                int from = w << 6, to = Math.min(from + 64, size);
+                long word = 0;
+                for (int i = from; i < to; i++) word |= (passes[codes[i]] ? 1L : 0L) << (i - from);
+                selected[w] = word & ~nulls[w];
+            }
+            return selected;
+        }
+    }
+
+    /** Booleans packed into a bitmap. */
+    static final class Booleans extends Column {
+        final long[] bits;
+
+        private Booleans(Object[] source, long[] nulls) {
+            super(source.length, nulls);
+            bits = new long[nulls.length];
+            for (int i = 0; i < size; i++) if (Boolean.TRUE.equals(source[i])) bits[i >>> 6] |= 1L << i;
+        }
+
+        @Override
+        Object get(int row) { return isNull(row) ? null : (Object) isSelected(bits, row); }
+
+        @Override
+        long[] select(Comparison comparison) {
+            long whenTrue = comparison.test(Boolean.TRUE) ? -1L : 0L, whenFalse = comparison.test(Boolean.FALSE) ? -1L : 0L;
+            long[] selected = new long[nulls.length];
+            for (int w = 0; w < selected.length; w++) {
+                selected[w] = (bits[w] & whenTrue | ~bits[w] & whenFalse) & ~nulls[w];
+            }
+            if ((size & 63) != 0 && selected.length > 0) selected[selected.length - 1] &= (1L << size) - 1;
+            return selected;
+        }
+    }
+
+    /** Mixed or nested values, kept as they are. */
+    static final class Mixed extends Column {
+        final Object[] values;
+
+        private Mixed(Object[] source, long[] nulls) {
+            super(source.length, nulls);
+            values = source.clone();
+        }
+
+        @Override
+        Object get(int row) { return values[row]; }
+
+        @Override
+        long[] present() {
+            long[] present = new long[nulls.length];
+            for (int i = 0; i < size; i++) {
+                if (Comparison.operandOf(values[i]) != null) present[i >>> 6] |= 1L << i;
+            }
+            return present;
+        }
+    }
+}
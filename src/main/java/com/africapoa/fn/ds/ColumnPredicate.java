@@ -0,0 +1,190 @@
+package com.africapoa.fn.ds;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A filter compiled for a {@link ColumnTable}: comparisons joined by {@code &&} and {@code ||},
+ * with parentheses for grouping.
+ * <p>
+ * As in a row by row filter, {@code &&} and {@code ||} bind equally and apply from left to right,
+ * so {@code a || b && c} means {@code (a || b) && c}.
+ * </p>
+ * <p>
+ * Each comparison runs over its whole column and yields a selection bitmap (see
+ * {@link Column#select}); the bitmaps are then combined 64 rows at a time with bitwise and/or.
+ * A conjunction stops as soon as no row is left. As in a row by row filter, a row lacking a
+ * value for any field the filter names never passes, even where an {@code ||} would let it.
+ * </p>
+ */
+abstract class ColumnPredicate {
+
+    /**
+     * Evaluates the predicate on every row of a table.
+     *
+     * @param table the table
+     * @return the selection bitmap of the rows that pass, one bit per row
+     */
+    abstract long[] select(ColumnTable table);
+
+    /**
+     * Compiles a filter expression.
+     *
+     * @param expression the filter, as accepted by {@link JsonQ#where}
+     * @return the predicate, or null if the expression holds anything but simple comparisons
+     */
+    static ColumnPredicate parse(String expression) {
+        Set<String> fields = new LinkedHashSet<>();
+        ColumnPredicate predicate = compile(expression, fields);
+        if (predicate == null || predicate instanceof Term) return predicate;
+        return new Defined(predicate, fields.toArray(new String[0]));
+    }
+
+    private static ColumnPredicate compile(String expression, Set<String> fields) {
+        String exp = unwrap(expression.trim());
+        List<String> parts = split(exp);
+        if (parts == null) return null;
+        if (parts.size() == 1) {
+            Comparison comparison = Comparison.parse(exp);
+            if (comparison == null) return null;
+            fields.add(comparison.field);
+            return new Term(comparison);
+        }
+        ColumnPredicate folded = compile(parts.get(0), fields);
+        int i = 1;
+        while (folded != null && i < parts.size()) {
+            String operator = parts.get(i);
+            List<ColumnPredicate> terms = new ArrayList<>();
+            terms.add(folded);
+            for (; i < parts.size() && parts.get(i).equals(operator); i += 2) {
+                ColumnPredicate term = compile(parts.get(i + 1), fields);
+                if (term == null) return null;
+                terms.add(term);
+            }
+            ColumnPredicate[] joined = terms.toArray(new ColumnPredicate[0]);
+            folded = operator.equals("&") ? new All(joined) : new Any(joined);
+        }
+        return folded;
+    }
+
+    /**
+     * Splits an expression at the operator runs ({@code &&}, {@code &}, {@code ||}, {@code |})
+     * that are outside quotes and parentheses.
+     *
+     * @return the operands with the operators between them, {@code &} or {@code |}, or null if
+     *         the quotes or parentheses do not balance
+     */
+    private static List<String> split(String exp) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0, start = 0;
+        boolean quoted = false;
+        for (int i = 0; i < exp.length(); i++) {
+            char c = exp.charAt(i);
+            if (c == '\'') quoted = !quoted;
+            else if (quoted) continue;
+            else if (c == '(') depth++;
+            else if (c == ')' && --depth < 0) return null;
+            else if ((c == '&' || c == '|') && depth == 0) {
+                parts.add(exp.substring(start, i));
+                parts.add(String.valueOf(c));
+                while (i + 1 < exp.length() && exp.charAt(i + 1) == c) i++;
+                start = i + 1;
+            }
+        }
+        if (quoted || depth != 0) return null;
+        parts.add(exp.substring(start));
+        return parts;
+    }
+
+    /** Strips parentheses wrapping the whole expression. */
+    private static String unwrap(String exp) {
+        while (exp.startsWith("(") && exp.endsWith(")")) {
+            String inner = exp.substring(1, exp.length() - 1).trim();
+            if (split(inner) == null) break;
+            exp = inner;
+        }
+        return exp;
+    }
+
+    private static long[] none(ColumnTable table) {
+        return new long[(table.size() + 63) >>> 6];
+    }
+
+    private static boolean isEmpty(long[] bitmap) {
+        for (long word : bitmap) if (word != 0) return false;
+        return true;
+    }
+
+    /** One comparison on one column. */
+    private static final class Term extends ColumnPredicate {
+        private final Comparison comparison;
+
+        private Term(Comparison comparison) { this.comparison = comparison; }
+
+        @Override
+        long[] select(ColumnTable table) {
+            Column column = table.column(comparison.field);
+            return column == null ? none(table) : column.select(comparison);
+        }
+    }
+
+    /** Rows passing a filter that have a value for every field it names. */
+    private static final class Defined extends ColumnPredicate {
+        private final ColumnPredicate filter;
+        private final String[] fields;
+
+        private Defined(ColumnPredicate filter, String[] fields) {
+            this.filter = filter;
+            this.fields = fields;
+        }
+
+        @Override
+        long[] select(ColumnTable table) {
+            long[] selected = filter.select(table);
+            for (String field : fields) {
+                if (isEmpty(selected)) break;
+                Column column = table.column(field);
+                if (column == null) return none(table);
+                long[] present = column.present();
+                for (int w = 0; w < selected.length; w++) selected[w] &= present[w];
+            }
+            return selected;
+        }
+    }
+
+    /** Rows passing every term. */
+    private static final class All extends ColumnPredicate {
+        private final ColumnPredicate[] terms;
+
+        private All(ColumnPredicate[] terms) { this.terms = terms; }
+
+        @Override
+        long[] select(ColumnTable table) {
+            long[] selected = terms[0].select(table);
+            for (int t = 1; t < terms.length && !isEmpty(selected); t++) {
+                long[] next = terms[t].select(table);
+                for (int w = 0; w < selected.length; w++) selected[w] &= next[w];
+            }
+            return selected;
+        }
+    }
+
+    /** Rows passing any term. */
+    private static final class Any extends ColumnPredicate {
+        private final ColumnPredicate[] terms;
+
+        private Any(ColumnPredicate[] terms) { this.terms = terms; }
+
+        @Override
+        long[] select(ColumnTable table) {
+            long[] selected = terms[0].select(table);
+            for (int t = 1; t < terms.length; t++) {
+                long[] next = terms[t].select(table);
+                for (int w = 0; w < selected.length; w++) selected[w] |= next[w];
+            }
+            return selected;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.africapoa.fn.ds;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A read-only array of records stored column by column.
+ * <p>
+ * The table still is a {@code List} of {@code Map} rows, so every JsonQ query keeps working on
+ * it, but column extraction, projection and simple filters run straight over the typed
+ * column vectors without touching the rows.
+ * </p>
+ */
+final class ColumnTable extends AbstractList<Object> implements RandomAccess {
+    private final String[] names;
+    private final Column[] columns;
+    private final Map<String, Integer> positions;
+    private final int rows;
+
+    private ColumnTable(String[] names, Column[] columns, int rows) {
+        this.names = names;
+        this.columns = columns;
+        this.rows = rows;
+        this.positions = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) positions.put(names[i], i);
+    }
+
+    /**
+     * Converts an array of objects into a column table.
+     *
+     * @param records the rows, every element must be a Map
+     * @return the table, or null if any element is not a Map
+     */
+    static ColumnTable from(List<?> records) {
+        Map<String, Object[]> values = new LinkedHashMap<>();
+        int rows = records.size();
+        for (int row = 0; row < rows; row++) {
+            Object record = records.get(row);
+            if (!(record instanceof Map<?, ?>)) return null;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) record).entrySet()) {
+                values.computeIfAbsent(String.valueOf(e.getKey()), k -> new Object[rows])[row] = e.getValue();
+            }
+        }
+        return from(values, rows);
+    }
+
+    /**
+     * Builds a table from per-column value arrays.
+     *
+     * @param values the column values keyed by column name, in column order
+     * @param rows   the number of rows, every array must have this length
+     * @return the table
+     */
+    static ColumnTable from(Map<String, Object[]> values, int rows) {
+        String[] names = values.keySet().toArray(new String[0]);
+        Column[] columns = new Column[names.length];
+        for (int i = 0; i < names.length; i++) columns[i] = Column.of(values.get(names[i]));
+        return new ColumnTable(names, columns, rows);
+    }
+
+    /**
+     * Returns a column by name.
+     *
+     * @param name the column name
+     * @return the column, or null if no row has that field
+     */
+    Column column(String name) {
+        Integer position = positions.get(name);
+        return position == null ? null : columns[position];
+    }
+
+    /**
+     * Projects the table onto the given columns. The column vectors are shared, not copied.
+     *
+     * @param selection the columns to keep
+     * @return a table with just those columns, missing ones are all-null
+     */
+    ColumnTable select(String... selection) {
+        Column[] picked = new Column[selection.length];
+        for (int i = 0; i < selection.length; i++) {
+            Column column = column(selection[i]);
+            picked[i] = column != null ? column : Column.empty(rows);
+        }
+        return new ColumnTable(selection.clone(), picked, rows);
+    }
+
+    /**
+     * Finds the rows passing a filter.
+     *
+     * @param predicate the compiled filter
+     * @return the selection bitmap with one bit per row
+     */
+    long[] where(ColumnPredicate predicate) {
+        return predicate.select(this);
+    }
+
+    /**
+     * Gathers the selected rows into a new table.
+     *
+     * @param selected a selection bitmap as returned by {@link #where(ColumnPredicate)}
+     * @return a table of the selected rows, in their original order
+     */
+    ColumnTable take(long[] selected) {
+        int[] picked = new int[rows];
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            if (Column.isSelected(selected, row)) picked[count++] = row;
+        }
+        if (count == rows) return this;
+        Column[] taken = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) taken[i] = columns[i].take(picked, count);
+        return new ColumnTable(names, taken, count);
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= rows) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + rows);
+        return new Row(index);
+    }
+
+    @Override
+    public int size() { return rows; }
+
+    /**
+     * A read-only view of one row. Fields whose value is missing are left out.
+     */
+    private final class Row extends AbstractMap<String, Object> {
+        private final int row;
+
+        private Row(int row) { this.row = row; }
+
+        @Override
+        public Object get(Object key) {
+            Column column = key instanceof String ? column((String) key) : null;
+            return column == null ? null : column.get(row);
+        }
+
+        @Override
+        public boolean containsKey(Object key) { return get(key) != null; }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() { return new FieldIterator(); }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Column column : columns) if (!column.isNull(row)) size++;
+                    return size;
+                }
+            };
+        }
+
+        private final class FieldIterator implements Iterator<Entry<String, Object>> {
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() { return next < columns.length; }
+
+            @Override
+            public Entry<String, Object> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Entry<String, Object> entry = new SimpleImmutableEntry<>(names[next], columns[next].get(row));
+                next = advance(next + 1);
+                return entry;
+            }
+
+            private int advance(int from) {
+                while (from < columns.length && columns[from].isNull(row)) from++;
+                return from;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.africapoa.fn.ds;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds compact document trees made of {@link CompactMap} and {@link CompactList} nodes.
+ * <p>
+ * One builder is used per document so that all objects of the document share one shape tree.
+ * Values of the object or array being built are staged on a single growable stack, which keeps
+ * the per-node garbage down to the final arrays.
+ * </p>
+ */
+final class CompactJson {
+    private final Shape shapes = Shape.root();
+    private Object[] stack = new Object[64];
+    private int top;
+
+    private CompactJson() {}
+
+    /**
+     * Reads the next JSON value from the reader into a compact tree.
+     *
+     * @param reader the reader positioned at a value
+     * @return a CompactMap, CompactList, String, Double, Boolean or null
+     * @throws IOException if the reader fails or the JSON is malformed
+     */
+    static Object read(JsonReader reader) throws IOException {
+        return new CompactJson().readValue(reader);
+    }
+
+    /**
+     * Copies an existing Map/List tree into a compact tree. Leaves are shared, not copied.
+     *
+     * @param node the node to copy
+     * @return the compact copy, or the node itself if it is not a Map or List
+     */
+    static Object copyOf(Object node) {
+        return new CompactJson().copy(node);
+    }
+
+    private Object readValue(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_OBJECT: return readObject(reader);
+            case BEGIN_ARRAY: return readArray(reader);
+            case STRING: return reader.nextString();
+            case NUMBER: return reader.nextDouble();
+            case BOOLEAN: return reader.nextBoolean();
+            case NULL: reader.nextNull(); return null;
+            default: throw new IOException("Unexpected token " + token + " at " + reader.getPath());
+        }
+    }
+
+    private Object readObject(JsonReader reader) throws IOException {
+        int base = top;
+        Shape shape = shapes;
+        Map<String, Object> overflow = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            Object value = readValue(reader);
+            if (overflow != null) {
+                overflow.put(key, value);
+                continue;
+            }
+            int slot = shape.slotOf(key);
+            if (slot >= 0) {
+                stack[base + slot] = value;
+            } else if (shape.size() < Shape.MAX_KEYS) {
+                shape = shape.with(key);
+                push(value);
+            } else {
+                overflow = new LinkedHashMap<>();
+                for (int i = 0; i < shape.size(); i++) overflow.put(shape.key(i), stack[base + i]);
+                overflow.put(key, value);
+            }
+        }
+        reader.endObject();
+        return overflow != null ? pop(base, overflow) : new CompactMap(shape, pop(base));
+    }
+
+    private Object readArray(JsonReader reader) throws IOException {
+        int base = top;
+        reader.beginArray();
+        while (reader.hasNext()) push(readValue(reader));
+        reader.endArray();
+        Object[] values = pop(base);
+        return new CompactList(values, values.length);
+    }
+
+    private Object copy(Object node) {
+        if (node instanceof Map<?, ?>) {
+            Map<?, ?> map = (Map<?, ?>) node;
+            if (map.size() > Shape.MAX_KEYS) {
+                Map<String, Object> copy = new LinkedHashMap<>();
+                for (Map.Entry<?, ?> e : map.entrySet()) copy.put(String.valueOf(e.getKey()), copy(e.getValue()));
+                return copy;
+            }
+            Shape shape = shapes;
+            Object[] values = new Object[map.size()];
+            int i = 0;
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                shape = shape.with(String.valueOf(e.getKey()));
+                values[i++] = copy(e.getValue());
+            }
+            return new CompactMap(shape, values);
+        }
+        if (node instanceof List<?>) {
+            List<?> list = (List<?>) node;
+            Object[] values = new Object[list.size()];
+            for (int i = 0; i < values.length; i++) values[i] = copy(list.get(i));
+            return new CompactList(values, values.length);
+        }
+        return node;
+    }
+
+    private void push(Object value) {
+        if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+        stack[top++] = value;
+    }
+
+    private Object[] pop(int base) {
+        Object[] values = Arrays.copyOfRange(stack, base, top);
+        Arrays.fill(stack, base, top, null);
+        top = base;
+        return values;
+    }
+
+    private Object pop(int base, Map<String, Object> overflow) {
+        Arrays.fill(stack, base, top, null);
+        top = base;
+        return overflow;
+    }
+}
@@ -0,0 +1,108 @@
+package com.africapoa.fn.ds;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An array-backed JSON array that keeps all-numeric content in a {@code double[]}.
+ * <p>
+ * The list starts out numeric and switches to an {@code Object[]} the first time a
+ * non-{@code Double} element is stored, so arrays of numbers never pay for boxed elements.
+ * </p>
+ */
+final class CompactList extends AbstractList<Object> implements RandomAccess {
+    private static final double[] NO_NUMBERS = new double[0];
+
+    private double[] numbers;
+    private Object[] elements;
+    private int size;
+
+    /**
+     * Creates an empty list.
+     */
+    public CompactList() {
+        numbers = NO_NUMBERS;
+    }
+
+    /**
+     * Creates a list holding the first {@code size} values of the given array.
+     *
+     * @param values the elements
+     * @param size   how many of the elements to keep
+     */
+    CompactList(Object[] values, int size) {
+        this.size = size;
+        boolean numeric = true;
+        for (int i = 0; i < size && numeric; i++) numeric = values[i] instanceof Double;
+        if (numeric) {
+            numbers = new double[size];
+            for (int i = 0; i < size; i++) numbers[i] = (Double) values[i];
+        } else elements = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public Object get(int index) {
+        checkIndex(index, size);
+        return numbers != null ? (Object) numbers[index] : elements[index];
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        checkIndex(index, size);
+        Object old = get(index);
+        if (numbers != null && !(element instanceof Double)) inflate();
+        if (numbers != null) numbers[index] = (Double) element;
+        else elements[index] = element;
+        return old;
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        checkIndex(index, size + 1);
+        if (numbers != null && !(element instanceof Double)) inflate();
+        if (numbers != null) {
+            if (size == numbers.length) numbers = Arrays.copyOf(numbers, grow(size));
+            System.arraycopy(numbers, index, numbers, index + 1, size - index);
+            numbers[index] = (Double) element;
+        } else {
+            if (size == elements.length) elements = Arrays.copyOf(elements, grow(size));
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            elements[index] = element;
+        }
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Object old = get(index);
+        int tail = size - index - 1;
+        if (numbers != null) System.arraycopy(numbers, index + 1, numbers, index, tail);
+        else {
+            System.arraycopy(elements, index + 1, elements, index, tail);
+            elements[size - 1] = null;
+        }
+        size--;
+        modCount++;
+        return old;
+    }
+
+    private void inflate() {
+        elements = new Object[Math.max(numbers.length, 4)];
+        for (int i = 0; i < size; i++) elements[i] = numbers[i];
+        numbers = null;
+    }
+
+    private static int grow(int size) {
+        return Math.max(4, size + (size >> 1));
+    }
+
+    private void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+}
@@ -0,0 +1,158 @@
+package com.africapoa.fn.ds;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An array-backed JSON object whose keys live in a shared {@link Shape}.
+ * <p>
+ * Values are kept in a plain array in key order. {@code Double} values are unboxed into a
+ * parallel {@code double[]} and boxed again on read, so numeric records cost eight bytes per
+ * field instead of a full {@code Double} object.
+ * </p>
+ */
+final class CompactMap extends AbstractMap<String, Object> {
+    private static final Object NUMBER = new Object();
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private Shape shape;
+    private Object[] values;
+    private double[] numbers;
+
+    /**
+     * Creates an empty map with its own root shape.
+     */
+    public CompactMap() {
+        this(Shape.root(), NO_VALUES);
+    }
+
+    /**
+     * Creates a map over the given shape and values.
+     *
+     * @param shape  the key table, its size must match {@code values.length}
+     * @param values the values in slot order
+     */
+    CompactMap(Shape shape, Object[] values) {
+        this.shape = shape;
+        this.values = values.length == 0 ? NO_VALUES : new Object[values.length];
+        for (int i = 0; i < values.length; i++) store(i, values[i]);
+    }
+
+    @Override
+    public int size() { return shape.size(); }
+
+    @Override
+    public boolean containsKey(Object key) { return shape.slotOf(key) >= 0; }
+
+    @Override
+    public Object get(Object key) {
+        int slot = shape.slotOf(key);
+        return slot < 0 ? null : load(slot);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = shape.slotOf(key);
+        if (slot >= 0) {
+            Object old = load(slot);
+            store(slot, value);
+            return old;
+        }
+        shape = shape.with(key);
+        values = Arrays.copyOf(values, values.length + 1);
+        if (numbers != null) numbers = Arrays.copyOf(numbers, values.length);
+        store(values.length - 1, value);
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = shape.slotOf(key);
+        if (slot < 0) return null;
+        Object old = load(slot);
+        removeSlot(slot);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        shape = shape.empty();
+        values = NO_VALUES;
+        numbers = null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() { return new SlotIterator(); }
+
+            @Override
+            public int size() { return shape.size(); }
+        };
+    }
+
+    private Object load(int slot) {
+        Object value = values[slot];
+        return value == NUMBER ? (Object) numbers[slot] : value;
+    }
+
+    private void store(int slot, Object value) {
+        if (value instanceof Double) {
+            if (numbers == null) numbers = new double[values.length];
+            numbers[slot] = (Double) value;
+            values[slot] = NUMBER;
+        } else values[slot] = value;
+    }
+
+    private void removeSlot(int slot) {
+        int tail = values.length - slot - 1;
+        Object[] keptValues = new Object[values.length - 1];
+        System.arraycopy(values, 0, keptValues, 0, slot);
+        System.arraycopy(values, slot + 1, keptValues, slot, tail);
+        if (numbers != null) {
+            double[] keptNumbers = new double[keptValues.length];
+            System.arraycopy(numbers, 0, keptNumbers, 0, slot);
+            System.arraycopy(numbers, slot + 1, keptNumbers, slot, tail);
+            numbers = keptNumbers;
+        }
+        values = keptValues.length == 0 ? NO_VALUES : keptValues;
+        shape = shape.without(slot);
+    }
+
+    private final class SlotIterator implements Iterator<Entry<String, Object>> {
+        private int next;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() { return next < values.length; }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            last = next++;
+            int slot = last;
+            return new SimpleEntry<String, Object>(shape.key(slot), load(slot)) {
+                @Override
+                public Object setValue(Object value) {
+                    super.setValue(value);
+                    Object old = load(slot);
+                    store(slot, value);
+                    return old;
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) throw new IllegalStateException();
+            removeSlot(last);
+            next = last;
+            last = -1;
+        }
+    }
+}
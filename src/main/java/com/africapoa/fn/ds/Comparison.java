@@ -0,0 +1,155 @@
+package com.africapoa.fn.ds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single {@code @.field op literal} filter term, as produced by {@link JsonQ#where}.
+ * <p>
+ * Comparisons follow the rules of {@link BoolEvaluator}: values are first turned into
+ * expression operands (numbers and booleans become doubles, "yes"/"no" style strings become
+ * booleans), two doubles compare numerically and anything else compares as strings.
+ * </p>
+ */
+final class Comparison {
+    private static final Pattern TERM = Pattern.compile(
+            "\\s*\\(?\\s*@\\.(\\w+)\\s*(==|!=|>=|<=|>|<|~)\\s*('[^']*'|\\d+\\.?\\d*|true|false)\\s*\\)?\\s*");
+    private static final Pattern AND = Pattern.compile("&&|&");
+    private static final Pattern VALUED_TRUE = PathType.VALUED_TRUE.getPattern();
+    private static final Pattern VALUED_FALSE = PathType.VALUED_FALSE.getPattern();
+
+    final String field;
+    final String op;
+    final Object operand;
+    private final Pattern regex;
+
+    private Comparison(String field, String op, Object operand) {
+        this.field = field;
+        this.op = op;
+        this.operand = operand;
+        this.regex = op.equals("~") ? Pattern.compile(String.valueOf(operand)) : null;
+    }
+
+    /**
+     * Parses a filter made of one or more comparisons joined by {@code &&}.
+     *
+     * @param expression the filter expression, optionally wrapped in parentheses
+     * @return the comparisons, or null if the expression is not such a simple conjunction
+     */
+    static List<Comparison> parseAll(String expression) {
+        String exp = expression.trim();
+        while (exp.startsWith("(") && exp.endsWith(")") && balanced(exp.substring(1, exp.length() - 1)))
+            exp = exp.substring(1, exp.length() - 1).trim();
+
+        List<Comparison> terms = new ArrayList<>();
+        Matcher term = TERM.matcher(exp);
+        Matcher and = AND.matcher(exp);
+        int at = 0;
+        while (true) {
+            term.region(at, exp.length());
+            if (!term.lookingAt()) return null;
+            terms.add(new Comparison(term.group(1), term.group(2), literal(term.group(3))));
+            at = term.end();
+            if (at == exp.length()) return terms;
+            and.region(at, exp.length());
+            if (!and.lookingAt()) return null;
+            at = and.end();
+        }
+    }
+
+    /**
+     * Parses a filter holding exactly one comparison.
+     *
+     * @param expression the filter expression
+     * @return the comparison, or null if the expression is anything else
+     */
+    static Comparison parse(String expression) {
+        List<Comparison> terms = parseAll(expression);
+        return terms != null && terms.size() == 1 ? terms.get(0) : null;
+    }
+
+    /**
+     * Tests a raw document value against this comparison.
+     *
+     * @param value the value of {@link #field} in a row
+     * @return true if the row passes, false if it fails or the value cannot take part in an expression
+     */
+    boolean test(Object value) {
+        Object a = operandOf(value);
+        if (a == null) return false;
+        if (a instanceof Double && operand instanceof Double)
+            return compare((Double) a, (Double) operand);
+        return compare(String.valueOf(a), String.valueOf(operand));
+    }
+
+    /**
+     * Tests a numeric value against this comparison without boxing.
+     *
+     * @param value the number to test
+     * @return true if the value passes
+     */
+    boolean test(double value) {
+        if (operand instanceof Double) return compare(value, (Double) operand);
+        return compare(String.valueOf(value), String.valueOf(operand));
+    }
+
+    /**
+     * Turns a document value into the operand {@link BoolEvaluator} would see for it.
+     *
+     * @param value the document value
+     * @return a Double, a String, or null if the value is not primitive
+     */
+    static Object operandOf(Object value) {
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof Boolean) return (Boolean) value ? 1.0 : 0.0;
+        if (!(value instanceof String)) return null;
+        String v = (String) value;
+        return VALUED_TRUE.matcher(v).matches() ? (Object) 1.0
+                : VALUED_FALSE.matcher(v).matches() ? (Object) 0.0
+                : v;
+    }
+
+    private boolean compare(double a, double b) {
+        switch (op) {
+            case "==": return a == b;
+            case "!=": return a != b;
+            case ">": return a > b;
+            case "<": return a < b;
+            case ">=": return a >= b;
+            case "<=": return a <= b;
+            default: return compare(String.valueOf(a), String.valueOf(b));
+        }
+    }
+
+    private boolean compare(String a, String b) {
+        switch (op) {
+            case "==": return a.equals(b);
+            case "!=": return !a.equals(b);
+            case ">": return a.compareTo(b) > 0;
+            case "<": return a.compareTo(b) < 0;
+            case ">=": return a.compareTo(b) >= 0;
+            case "<=": return a.compareTo(b) <= 0;
+            case "~": return regex.matcher(a).matches();
+            default: return false;
+        }
+    }
+
+    private static Object literal(String token) {
+        return token.startsWith("'") ? token.substring(1, token.length() - 1)
+                : token.equals("true") ? (Object) 1.0
+                : token.equals("false") ? (Object) 0.0
+                : (Object) Double.parseDouble(token);
+    }
+
+    private static boolean balanced(String exp) {
+        int depth = 0;
+        for (int i = 0; i < exp.length(); i++) {
+            char c = exp.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')' && --depth < 0) return false;
+        }
+        return depth == 0;
+    }
+}
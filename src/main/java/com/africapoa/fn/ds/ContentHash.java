@@ -0,0 +1,138 @@
+package com.africapoa.fn.ds;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content hashes of the nodes of one document, Merkle style: an object or array hashes the hashes
+ * of its children, so the hash of every subtree is known once the root is hashed.
+ * <p>
+ * Hashes follow structural equality: numbers hash by value whatever their type, and objects hash
+ * their entries in any order. Every object and array of the document is hashed once, when the
+ * instance is created, into a cache keyed by identity that is only read afterwards, so an instance
+ * can be shared between threads; a changed document needs a new instance. Comparisons
+ * use differing hashes to reject quickly and only walk subtrees whose hashes agree, which confirms
+ * them exactly rather than trusting the hash.
+ * </p>
+ */
+final class ContentHash {
+    private static final long NULL = 0x6a09e667f3bcc908L, TRUE = 0xbb67ae8584caa73bL, FALSE = 0x3c6ef372fe94f82bL;
+    private static final long OBJECT = 0xa54ff53a5f1d36f1L, ARRAY = 0x510e527fade682d1L;
+    private final Map<Object, Long> cache;
+
+    /**
+     * Hashes every object and array of a document.
+     *
+     * @param root the root of the document
+     */
+    ContentHash(Object root) {
+        Map<Object, Long> hashes = new IdentityHashMap<>();
+        hash(root, hashes);
+        cache = hashes;
+    }
+
+    /**
+     * Hashes a node of the document. Nodes that were not in the document when this instance was
+     * created are hashed again on every call.
+     *
+     * @param node the node
+     * @return its content hash
+     */
+    long of(Object node) {
+        return hash(node, null);
+    }
+
+    /**
+     * Hashes a node, reusing the hashes of the subtrees already known.
+     *
+     * @param node  the node
+     * @param store where to record the hashes of the objects and arrays, or null to only read the cache
+     */
+    private long hash(Object node, Map<Object, Long> store) {
+        if (node == null) return NULL;
+        if (node instanceof Boolean) return (Boolean) node ? TRUE : FALSE;
+        if (node instanceof Number) {
+            double d = ((Number) node).doubleValue();
+            return mix(Double.doubleToLongBits(d == 0 ? 0.0 : d));
+        }
+        if (node instanceof String) return hashString((String) node);
+        if (!(node instanceof Map<?, ?> || node instanceof List<?>)) return hash(PojoView.view(node), store);
+        Long cached = (store != null ? store : cache).get(node);
+        if (cached != null) return cached;
+        long hash;
+        if (node instanceof Map<?, ?>) {
+            hash = OBJECT;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) node).entrySet()) {
+                hash += mix(hashString(String.valueOf(e.getKey())) ^ mix(hash(e.getValue(), store) + ARRAY));
+            }
+        } else {
+            List<?> list = (List<?>) node;
+            hash = ARRAY;
+            for (int i = 0, len = list.size(); i < len; i++) hash = mix(hash * 31 + hash(list.get(i), store));
+        }
+        if (store != null) store.put(node, hash);
+        return hash;
+    }
+
+    /**
+     * Compares two nodes structurally.
+     *
+     * @param a      a node of this document
+     * @param other  the hashes of the document holding b
+     * @param b      the other node
+     * @return true if the nodes have the same content
+     */
+    boolean same(Object a, ContentHash other, Object b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (a instanceof Number && b instanceof Number) {
+            double x = ((Number) a).doubleValue(), y = ((Number) b).doubleValue();
+            return x == y || (Double.isNaN(x) && Double.isNaN(y));
+        }
+        a = node(a);
+        b = node(b);
+        boolean aContainer = isContainer(a), bContainer = isContainer(b);
+        if (!aContainer || !bContainer) return !aContainer && !bContainer && a.equals(b);
+        if (of(a) != other.of(b)) return false;
+        if (a instanceof Map<?, ?> && b instanceof Map<?, ?>) {
+            Map<?, ?> x = (Map<?, ?>) a, y = (Map<?, ?>) b;
+            if (x.size() != y.size()) return false;
+            for (Map.Entry<?, ?> e : x.entrySet()) {
+                Object key = e.getKey();
+                if (!y.containsKey(key) || !same(e.getValue(), other, y.get(key))) return false;
+            }
+            return true;
+        }
+        if (a instanceof List<?> && b instanceof List<?>) {
+            List<?> x = (List<?>) a, y = (List<?>) b;
+            if (x.size() != y.size()) return false;
+            for (int i = 0, len = x.size(); i < len; i++) if (!same(x.get(i), other, y.get(i))) return false;
+            return true;
+        }
+        return false;
+    }
+
+    /** Views a POJO as the Map it is queried as; document nodes are returned as they are. */
+    static Object node(Object value) {
+        return value == null || value instanceof Map<?, ?> || value instanceof List<?> || value instanceof String
+                || value instanceof Number || value instanceof Boolean ? value : PojoView.view(value);
+    }
+
+    static boolean isContainer(Object node) {
+        return node instanceof Map<?, ?> || node instanceof List<?>;
+    }
+
+    private static long hashString(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, len = s.length(); i < len; i++) hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+        return mix(hash);
+    }
+
+    /** The SplitMix64 finalizer: spreads every input bit over the whole hash. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
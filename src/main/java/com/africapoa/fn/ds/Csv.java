@@ -0,0 +1,457 @@
+package com.africapoa.fn.ds;
+
+import com.africapoa.fn.utils.JsonUtil;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes delimited text (RFC 4180 CSV, TSV and the like) as arrays of records.
+ * <p>
+ * Records are read in one pass over a character buffer. Fields may be quoted with {@code "},
+ * which allows delimiters, quotes (doubled) and line breaks inside them. An empty field is a
+ * missing value and is left out of its record; a quoted empty field is an empty string. Blank
+ * lines are skipped. With type inference, unquoted fields that are JSON numbers or booleans
+ * become Doubles and Booleans, so the records hold the same types a parsed JSON document would.
+ * Quoted fields always stay strings, which is also how strings that look like numbers are
+ * written back.
+ * </p>
+ * <p>
+ * Rows are loaded as {@link CompactMap}s sharing one key table, or column by column straight
+ * into a {@link ColumnTable}.
+ * </p>
+ */
+final class Csv {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private Csv() {}
+
+    /**
+     * Reads delimited text.
+     *
+     * @param in      the text; it is not closed
+     * @param options the format and how to load it
+     * @return a List of records, or a {@link ColumnTable} if the options ask for columns
+     * @throws IOException if reading fails
+     */
+    static List<Object> read(Reader in, CsvOptions options) throws IOException {
+        Tokenizer tokenizer = new Tokenizer(in, options.delimiter);
+        Records records = options.columnar ? new Columns() : new Rows();
+        List<Object> fields = new ArrayList<>();
+        boolean header = options.header;
+        while (tokenizer.next(fields)) {
+            if (fields.size() == 1 && fields.get(0) == null) continue;
+            if (header) {
+                records.name(fields);
+                header = false;
+                continue;
+            }
+            if (options.inferTypes) {
+                for (int i = 0, n = fields.size(); i < n; i++) {
+                    if (fields.get(i) != null && !tokenizer.quoted(i)) fields.set(i, infer((String) fields.get(i)));
+                }
+            }
+            records.add(fields);
+        }
+        return records.result();
+    }
+
+    /**
+     * Loads rows of values, such as the cell values of a spreadsheet range.
+     *
+     * @param rows    the rows; with a header, the first one names the columns
+     * @param options how to load them, the delimiter is not used
+     * @return a List of records, or a {@link ColumnTable} if the options ask for columns
+     */
+    static List<Object> fromRows(List<? extends List<?>> rows, CsvOptions options) {
+        Records records = options.columnar ? new Columns() : new Rows();
+        List<Object> fields = new ArrayList<>();
+        boolean header = options.header;
+        for (List<?> row : rows) {
+            fields.clear();
+            for (Object value : row) {
+                if (header) fields.add(value == null ? null : String.valueOf(value));
+                else if (value instanceof String) {
+                    String s = (String) value;
+                    fields.add(s.isEmpty() ? null : options.inferTypes ? infer(s) : s);
+                } else fields.add(value instanceof Number ? (Object) ((Number) value).doubleValue() : value);
+            }
+            if (header) records.name(fields);
+            else records.add(fields);
+            header = false;
+        }
+        return records.result();
+    }
+
+    /**
+     * Writes a document as delimited text. The elements of an array are written one per line:
+     * objects under a header of all their keys, arrays field by field, anything else as a
+     * single field. Nested values are written as compact JSON. A line that would be blank, such
+     * as a record without values in a single column, holds an empty quoted field instead, since
+     * blank lines are skipped on reading; it reads back as an empty string.
+     *
+     * @param root    the document
+     * @param out     where to write; it is neither flushed nor closed
+     * @param options the format
+     * @throws IOException if writing fails
+     */
+    static void write(Object root, Writer out, CsvOptions options) throws IOException {
+        List<?> rows = root instanceof List<?> ? (List<?>) root : root == null ? Collections.emptyList() : Collections.singletonList(root);
+        Set<String> keys = new LinkedHashSet<>();
+        boolean records = false;
+        for (Object row : rows) {
+            row = node(row);
+            if (!(row instanceof Map<?, ?>)) continue;
+            records = true;
+            for (Object key : ((Map<?, ?>) row).keySet()) keys.add(String.valueOf(key));
+        }
+        char delimiter = options.delimiter;
+        if (options.header && records) {
+            int i = 0;
+            for (String key : keys) {
+                if (i++ > 0) out.write(delimiter);
+                writeField(key, false, out, delimiter);
+            }
+            if (keys.isEmpty() || keys.equals(Set.of(""))) out.write("\"\"");
+            out.write("\r\n");
+        }
+        for (Object row : rows) {
+            row = node(row);
+            boolean blank = true;
+            if (row instanceof Map<?, ?>) {
+                Map<?, ?> record = (Map<?, ?>) row;
+                int i = 0;
+                for (String key : keys) {
+                    if (i++ > 0) out.write(delimiter);
+                    if (writeValue(record.get(key), out, delimiter)) blank = false;
+                }
+                blank &= i < 2;
+            } else if (row instanceof List<?>) {
+                int i = 0;
+                for (Object value : (List<?>) row) {
+                    if (i++ > 0) out.write(delimiter);
+                    if (writeValue(value, out, delimiter)) blank = false;
+                }
+                blank &= i < 2;
+            } else {
+                blank = !writeValue(row, out, delimiter);
+            }
+            if (blank) out.write("\"\"");
+            out.write("\r\n");
+        }
+    }
+
+    /**
+     * Writes a value as one field.
+     *
+     * @return false if the value is missing, so that nothing was written
+     */
+    private static boolean writeValue(Object value, Writer out, char delimiter) throws IOException {
+        value = node(value);
+        if (value == null) return false;
+        if (value instanceof String) writeField((String) value, true, out, delimiter);
+        else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            out.write(d == Math.rint(d) && Math.abs(d) < 1e15 ? Long.toString((long) d) : Double.toString(d));
+        } else if (value instanceof Number || value instanceof Boolean) out.write(value.toString());
+        else {
+            Gson gson = JsonUtil.getGson();
+            StringWriter json = new StringWriter();
+            JsonWriter writer = gson.newJsonWriter(json);
+            writer.setIndent("");
+            gson.toJson(value, Object.class, writer);
+            writeField(json.toString(), false, out, delimiter);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a field, quoting it if it holds a delimiter, quote or line break, or, for string
+     * values, if it would otherwise read back as something else.
+     */
+    private static void writeField(String field, boolean string, Writer out, char delimiter) throws IOException {
+        boolean quote = string && (field.isEmpty() || infer(field) != field);
+        for (int i = 0, len = field.length(); i < len && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        int from = 0;
+        for (int at; (at = field.indexOf('"', from)) >= 0; from = at + 1) {
+            out.write(field, from, at + 1 - from);
+            out.write('"');
+        }
+        out.write(field, from, field.length() - from);
+        out.write('"');
+    }
+
+    private static Object node(Object value) {
+        return value == null || value instanceof Map<?, ?> || value instanceof List<?> || value instanceof String
+                || value instanceof Number || value instanceof Boolean ? value : PojoView.view(value);
+    }
+
+    /**
+     * Reads an unquoted field as a JSON number or boolean if it is one.
+     *
+     * @param s the field
+     * @return a Double, a Boolean, or the field itself
+     */
+    static Object infer(String s) {
+        int len = s.length();
+        if (len == 4 && s.equalsIgnoreCase("true")) return Boolean.TRUE;
+        if (len == 5 && s.equalsIgnoreCase("false")) return Boolean.FALSE;
+        int i = 0;
+        boolean negative = len > 0 && s.charAt(0) == '-';
+        if (negative) i++;
+        if (i == len) return s;
+        long mantissa = 0;
+        int digits = 0, fractionDigits = 0;
+        char c = s.charAt(i);
+        if (c == '0') i++;
+        else if (c >= '1' && c <= '9') {
+            for (; i < len && (c = s.charAt(i)) >= '0' && c <= '9'; i++) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+            }
+        } else return s;
+        if (i < len && s.charAt(i) == '.') {
+            int start = ++i;
+            for (; i < len && (c = s.charAt(i)) >= '0' && c <= '9'; i++) {
+                if (mantissa != 0 || c != '0') digits++;
+                mantissa = mantissa * 10 + (c - '0');
+            }
+            fractionDigits = i - start;
+            if (fractionDigits == 0) return s;
+        }
+        if (i < len && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            if (++i < len && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            int start = i;
+            while (i < len && (c = s.charAt(i)) >= '0' && c <= '9') i++;
+            if (i == start || i < len) return s;
+            return Double.parseDouble(s);
+        }
+        if (i < len) return s;
+        if (digits > 15 || fractionDigits >= POWERS_OF_TEN.length) return Double.parseDouble(s);
+        // Both operands are exact doubles, so the division rounds correctly.
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    /** Names the column at a position after the spreadsheet columns: A to Z, then AA, AB, ... */
+    static String letters(int position) {
+        StringBuilder name = new StringBuilder();
+        for (int i = position + 1; i > 0; i = (i - 1) / 26) name.insert(0, (char) ('A' + (i - 1) % 26));
+        return name.toString();
+    }
+
+    /** Splits text into records of fields. */
+    private static final class Tokenizer {
+        private final Reader in;
+        private final char delimiter;
+        private final char[] buffer = new char[1 << 16];
+        private final StringBuilder field = new StringBuilder();
+        private long[] quoted = new long[1];
+        private int pos, limit;
+        private boolean started;
+
+        private Tokenizer(Reader in, char delimiter) {
+            this.in = in;
+            this.delimiter = delimiter;
+        }
+
+        /** Whether a field of the last record was quoted. */
+        boolean quoted(int index) {
+            return index >>> 6 < quoted.length && (quoted[index >>> 6] & (1L << index)) != 0;
+        }
+
+        /**
+         * Reads the next record. Unquoted empty fields are null.
+         *
+         * @param fields receives the fields, as Strings
+         * @return false at the end of the input
+         */
+        boolean next(List<Object> fields) throws IOException {
+            fields.clear();
+            Arrays.fill(quoted, 0);
+            if (pos == limit && !fill()) return false;
+            if (!started) {
+                started = true;
+                if (buffer[pos] == '\uFEFF') pos++;
+            }
+            while (true) {
+                field.setLength(0);
+                boolean wasQuoted = (pos < limit || fill()) && buffer[pos] == '"';
+                if (wasQuoted) {
+                    pos++;
+                    readQuoted();
+                    int index = fields.size();
+                    if (index >>> 6 >= quoted.length) quoted = Arrays.copyOf(quoted, quoted.length * 2);
+                    quoted[index >>> 6] |= 1L << index;
+                }
+                int end = readPlain();
+                fields.add(wasQuoted || field.length() > 0 ? field.toString() : null);
+                if (end == delimiter) continue;
+                if (end == '\r' && (pos < limit || fill()) && buffer[pos] == '\n') pos++;
+                return true;
+            }
+        }
+
+        /** Reads up to the closing quote, unescaping doubled quotes. */
+        private void readQuoted() throws IOException {
+            while (pos < limit || fill()) {
+                int start = pos;
+                while (pos < limit && buffer[pos] != '"') pos++;
+                field.append(buffer, start, pos - start);
+                if (pos == limit) continue;
+                pos++;
+                if ((pos < limit || fill()) && buffer[pos] == '"') {
+                    field.append('"');
+                    pos++;
+                } else return;
+            }
+        }
+
+        /**
+         * Reads up to the end of the field and consumes its terminator.
+         *
+         * @return the delimiter or line break that ended the field, or -1 at the end of the input
+         */
+        private int readPlain() throws IOException {
+            while (pos < limit || fill()) {
+                int start = pos;
+                char c = 0;
+                while (pos < limit && (c = buffer[pos]) != delimiter && c != '\n' && c != '\r') pos++;
+                field.append(buffer, start, pos - start);
+                if (pos < limit) {
+                    pos++;
+                    return c;
+                }
+            }
+            return -1;
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            limit = Math.max(n, 0);
+            return n > 0;
+        }
+    }
+
+    /** Collects records under column names. */
+    private abstract static class Records {
+        final List<String> names = new ArrayList<>();
+        private final Set<String> taken = new HashSet<>();
+
+        /** Names the columns from a header row; blank and repeated names are made unique. */
+        void name(List<Object> header) {
+            for (Object name : header) {
+                String base = name == null || name.toString().trim().isEmpty() ? letters(names.size()) : name.toString();
+                String unique = base;
+                for (int n = 2; !taken.add(unique); n++) unique = base + "_" + n;
+                names.add(unique);
+            }
+        }
+
+        String nameOf(int column) {
+            while (names.size() <= column) {
+                String name = letters(names.size());
+                for (int n = 2; !taken.add(name); n++) name = letters(names.size()) + "_" + n;
+                names.add(name);
+            }
+            return names.get(column);
+        }
+
+        abstract void add(List<Object> fields);
+
+        abstract List<Object> result();
+    }
+
+    /** Records as {@link CompactMap}s; rows with every field present share one shape. */
+    private static final class Rows extends Records {
+        private final List<Object> rows = new ArrayList<>();
+        private final Shape root = Shape.root();
+        private final List<Shape> full = new ArrayList<>();
+
+        @Override
+        void add(List<Object> fields) {
+            int n = fields.size(), present = 0;
+            for (int i = 0; i < n; i++) if (fields.get(i) != null) present++;
+            if (present > Shape.MAX_KEYS) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int i = 0; i < n; i++) if (fields.get(i) != null) row.put(nameOf(i), fields.get(i));
+                rows.add(row);
+                return;
+            }
+            Object[] values = new Object[present];
+            Shape shape;
+            if (present == n && n > 0) {
+                for (int i = full.size(); i < n; i++) full.add((i == 0 ? root : full.get(i - 1)).with(nameOf(i)));
+                shape = full.get(n - 1);
+                for (int i = 0; i < n; i++) values[i] = fields.get(i);
+            } else {
+                shape = root;
+                for (int i = 0, k = 0; i < n; i++) {
+                    if (fields.get(i) == null) continue;
+                    shape = shape.with(nameOf(i));
+                    values[k++] = fields.get(i);
+                }
+            }
+            rows.add(new CompactMap(shape, values));
+        }
+
+        @Override
+        List<Object> result() {
+            return rows;
+        }
+    }
+
+    /** Records column by column, into one value array per column. */
+    private static final class Columns extends Records {
+        private final List<Object[]> columns = new ArrayList<>();
+        private int rows;
+
+        @Override
+        void add(List<Object> fields) {
+            for (int i = 0, n = fields.size(); i < n; i++) {
+                Object value = fields.get(i);
+                if (value == null) continue;
+                nameOf(i);
+                while (columns.size() <= i) columns.add(new Object[16]);
+                Object[] column = columns.get(i);
+                if (rows >= column.length) columns.set(i, column = Arrays.copyOf(column, Math.max(rows + 1, column.length * 2)));
+                column[rows] = value;
+            }
+            rows++;
+        }
+
+        @Override
+        List<Object> result() {
+            Map<String, Object[]> values = new LinkedHashMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                Object[] column = i < columns.size() ? columns.get(i) : null;
+                values.put(names.get(i), column == null ? new Object[rows] : Arrays.copyOf(column, rows));
+            }
+            return ColumnTable.from(values, rows);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.africapoa.fn.ds;
+
+/**
+ * How {@link JsonQ#fromCsv} reads and {@link JsonQ#writeCsv} writes delimited text.
+ * <p>
+ * Options are immutable: each setter returns a changed copy, so one instance can be shared.
+ * Start from {@link #csv()} or {@link #tsv()}.
+ * </p>
+ */
+public final class CsvOptions {
+    private static final CsvOptions CSV = new CsvOptions(',', true, true, false);
+    private static final CsvOptions TSV = new CsvOptions('\t', true, true, false);
+
+    final char delimiter;
+    final boolean header;
+    final boolean inferTypes;
+    final boolean columnar;
+
+    private CsvOptions(char delimiter, boolean header, boolean inferTypes, boolean columnar) {
+        this.delimiter = delimiter;
+        this.header = header;
+        this.inferTypes = inferTypes;
+        this.columnar = columnar;
+    }
+
+    /**
+     * Comma separated values with a header row and type inference, read into rows.
+     *
+     * @return the default options
+     */
+    public static CsvOptions csv() {
+        return CSV;
+    }
+
+    /**
+     * Tab separated values, otherwise like {@link #csv()}.
+     *
+     * @return the options
+     */
+    public static CsvOptions tsv() {
+        return TSV;
+    }
+
+    /**
+     * Sets the field separator.
+     *
+     * @param delimiter the separator, e.g. {@code ';'}; must not be a quote or a line break
+     * @return the changed options
+     * @throws IllegalArgumentException if the delimiter is a quote or a line break
+     */
+    public CsvOptions delimiter(char delimiter) {
+        if (delimiter == '"' || delimiter == '\n' || delimiter == '\r')
+            throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+        return new CsvOptions(delimiter, header, inferTypes, columnar);
+    }
+
+    /**
+     * Sets whether the first row names the columns. Without a header, columns are named
+     * A, B, C, ... as in a spreadsheet.
+     *
+     * @param header whether there is a header row to read or write
+     * @return the changed options
+     */
+    public CsvOptions header(boolean header) {
+        return new CsvOptions(delimiter, header, inferTypes, columnar);
+    }
+
+    /**
+     * Sets whether unquoted fields that are JSON numbers or booleans are read as such. Quoted
+     * fields, and every field without inference, are read as strings.
+     *
+     * @param inferTypes whether to infer the type of each field
+     * @return the changed options
+     */
+    public CsvOptions inferTypes(boolean inferTypes) {
+        return new CsvOptions(delimiter, header, inferTypes, columnar);
+    }
+
+    /**
+     * Sets whether to load straight into typed column vectors, as {@link JsonQ#columnar()}
+     * would, instead of one object per row. The result is read-only.
+     *
+     * @param columnar whether to load column by column
+     * @return the changed options
+     */
+    public CsvOptions columnar(boolean columnar) {
+        return new CsvOptions(delimiter, header, inferTypes, columnar);
+    }
+}
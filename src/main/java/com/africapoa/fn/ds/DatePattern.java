@@ -0,0 +1,170 @@
+package com.africapoa.fn.ds;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A date format, as a {@link DateTimeFormatter} pattern, read straight into epoch days.
+ * <p>
+ * Patterns made only of year ({@code u}, {@code y}), month ({@code M}) and day ({@code d})
+ * numbers and literal separators, such as {@code uuuu-MM-dd} or {@code dd/MM/yyyy}, are read by
+ * a digit scanner that allocates nothing. A field of two letters takes exactly two digits, a
+ * two-letter year falling in 2000-2099; a single letter takes one or two digits, up to nine for a
+ * year, as does a three-letter year. A year of four or more letters takes exactly that many
+ * digits, since a longer one would need a sign, and signs are not read. Other patterns go
+ * through the formatter. Either way dates resolve leniently, so a day or month past its end
+ * rolls over, as with the formats {@link JsonQ#dateColumn} always used.
+ * </p>
+ */
+final class DatePattern {
+    /** Returned when a text does not hold a date in the pattern. */
+    static final long MALFORMED = Long.MIN_VALUE;
+    static final DatePattern ISO = of("uuuu-MM-dd");
+    static final DatePattern DAY_FIRST = of("dd-MM-uuuu");
+
+    private static final char LITERAL = 0;
+    private final DateTimeFormatter formatter;
+    /** The scanner steps: field letters or {@link #LITERAL}; null if the formatter is needed. */
+    private final char[] kinds;
+    private final char[] literals;
+    private final int[] minDigits, maxDigits;
+
+    private DatePattern(DateTimeFormatter formatter, char[] kinds, char[] literals, int[] minDigits, int[] maxDigits) {
+        this.formatter = formatter;
+        this.kinds = kinds;
+        this.literals = literals;
+        this.minDigits = minDigits;
+        this.maxDigits = maxDigits;
+    }
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern the pattern, with the letters of {@link DateTimeFormatter}
+     * @return the compiled pattern
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    static DatePattern of(String pattern) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern, Locale.ENGLISH).withResolverStyle(ResolverStyle.LENIENT);
+        List<int[]> steps = new ArrayList<>();
+        String fields = "";
+        for (int i = 0; i < pattern.length(); ) {
+            char c = pattern.charAt(i);
+            int count = 1;
+            while (i + count < pattern.length() && pattern.charAt(i + count) == c) count++;
+            if (c == 'u' || c == 'y' || c == 'M' || c == 'd') {
+                char kind = c == 'y' ? 'u' : c;
+                if (fields.indexOf(kind) >= 0 || (kind != 'u' && count > 2)) return new DatePattern(formatter, null, null, null, null);
+                fields += kind;
+                steps.add(new int[]{kind, count});
+                i += count;
+            } else if (Character.isLetter(c) || c == '\'' || c == '[' || c == ']' || c == '#' || c == '{' || c == '}') {
+                return new DatePattern(formatter, null, null, null, null);
+            } else {
+                steps.add(new int[]{LITERAL, c});
+                i++;
+            }
+        }
+        if (fields.length() != 3) return new DatePattern(formatter, null, null, null, null);
+
+        int n = steps.size();
+        char[] kinds = new char[n], literals = new char[n];
+        int[] minDigits = new int[n], maxDigits = new int[n];
+        for (int i = 0; i < n; i++) {
+            int[] step = steps.get(i);
+            kinds[i] = (char) step[0];
+            if (kinds[i] == LITERAL) {
+                literals[i] = (char) step[1];
+                continue;
+            }
+            int count = step[1];
+            boolean adjacent = i + 1 < n && steps.get(i + 1)[0] != LITERAL;
+            if (count == 1 && adjacent) return new DatePattern(formatter, null, null, null, null);
+            minDigits[i] = count;
+            maxDigits[i] = count == 2 || count >= 4 || adjacent ? count : kinds[i] == 'u' ? 9 : 2;
+        }
+        return new DatePattern(formatter, kinds, literals, minDigits, maxDigits);
+    }
+
+    /**
+     * Reads a date.
+     *
+     * @param text the text, which must hold the date and nothing else
+     * @return the epoch day, or {@link #MALFORMED}
+     */
+    long epochDay(String text) {
+        if (kinds == null) {
+            try {
+                return LocalDate.from(formatter.parse(text)).toEpochDay();
+            } catch (DateTimeException e) {
+                return MALFORMED;
+            }
+        }
+        int pos = 0, len = text.length();
+        long year = 0;
+        int month = 0, day = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == LITERAL) {
+                if (pos >= len || text.charAt(pos) != literals[i]) return MALFORMED;
+                pos++;
+                continue;
+            }
+            int start = pos, end = Math.min(len, pos + maxDigits[i]);
+            long value = 0;
+            for (char c; pos < end && (c = text.charAt(pos)) >= '0' && c <= '9'; pos++) value = value * 10 + (c - '0');
+            if (pos - start < minDigits[i]) return MALFORMED;
+            if (kinds[i] == 'u') year = minDigits[i] == 2 ? 2000 + value : value;
+            else if (kinds[i] == 'M') month = (int) value;
+            else day = (int) value;
+        }
+        return pos == len ? epochDay(year, month, day) : MALFORMED;
+    }
+
+    /**
+     * Reads a date with the first of several patterns that matches.
+     *
+     * @param text     the text
+     * @param patterns the patterns, in order of preference
+     * @return the epoch day, or {@link #MALFORMED}
+     */
+    static long epochDay(String text, DatePattern[] patterns) {
+        for (DatePattern pattern : patterns) {
+            long day = pattern.epochDay(text);
+            if (day != MALFORMED) return day;
+        }
+        return MALFORMED;
+    }
+
+    /**
+     * Compiles several patterns.
+     *
+     * @param patterns the patterns; none means ISO dates, then {@code dd-MM-uuuu}
+     * @return the compiled patterns
+     */
+    static DatePattern[] all(String... patterns) {
+        if (patterns.length == 0) return new DatePattern[]{ISO, DAY_FIRST};
+        DatePattern[] compiled = new DatePattern[patterns.length];
+        for (int i = 0; i < patterns.length; i++) compiled[i] = of(patterns[i]);
+        return compiled;
+    }
+
+    /**
+     * Counts the days from 1970-01-01 to a proleptic Gregorian date, resolving out of range months
+     * and days by rolling over as {@link ResolverStyle#LENIENT} does.
+     */
+    static long epochDay(long year, int month, int day) {
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+        if (month <= 2) year--;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468 + (day - 1);
+    }
+}
@@ -0,0 +1,123 @@
+package com.africapoa.fn.ds;
+
+import com.africapoa.fn.ds.interfaces.Function;
+import com.africapoa.fn.ds.interfaces.Producer;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.africapoa.fn.utils.Log.log;
+
+/**
+ * Runs one query over many files on a bounded pool of worker threads, producing the matches as
+ * they become available.
+ * <p>
+ * At most two files per worker are in flight at a time, so memory stays bounded however many
+ * files there are and however slowly the matches are consumed. In ordered mode matches come out
+ * file by file in path order; otherwise each file's matches come out as soon as it is done.
+ * Workers are daemon threads that go away once idle.
+ * </p>
+ *
+ * @param <T> the type of the matches
+ */
+final class DirectoryQuery<T> implements Producer<T> {
+    private final Iterator<Path> files;
+    private final Function<Path, List<T>> query;
+    private final boolean ordered;
+    private final int window;
+    private final ThreadPoolExecutor pool;
+    private final CompletionService<List<T>> completed;
+    private final Deque<Future<List<T>>> inOrder = new ArrayDeque<>();
+    private int pending;
+    private Iterator<T> current = Collections.emptyIterator();
+
+    DirectoryQuery(List<Path> files, Function<Path, List<T>> query, int threads, boolean ordered) {
+        int workers = Math.max(1, threads);
+        this.files = files.iterator();
+        this.query = query;
+        this.ordered = ordered;
+        this.window = workers * 2;
+        this.pool = new ThreadPoolExecutor(workers, workers, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "JsonQ-queryAll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.completed = new ExecutorCompletionService<>(pool);
+    }
+
+    /**
+     * Lists the regular files under a directory whose path relative to it matches a glob.
+     *
+     * @param dir  the directory to search, recursively
+     * @param glob a glob such as {@code *.json} or {@code **}{@code /2024-*.json}
+     * @return the files, sorted by path
+     */
+    static List<Path> list(Path dir, String glob) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(dir.relativize(file)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log(e);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public T produce() {
+        while (!current.hasNext()) {
+            fill();
+            if (pending == 0) {
+                pool.shutdown();
+                throw new NoSuchElementException();
+            }
+            current = next().iterator();
+        }
+        return current.next();
+    }
+
+    private void fill() {
+        while (pending < window && files.hasNext()) {
+            Path file = files.next();
+            if (ordered) inOrder.add(pool.submit(() -> query.invoke(file)));
+            else completed.submit(() -> query.invoke(file));
+            pending++;
+        }
+    }
+
+    private List<T> next() {
+        pending--;
+        try {
+            List<T> matches = (ordered ? inOrder.poll() : completed.take()).get();
+            return matches != null ? matches : Collections.emptyList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+            throw new NoSuchElementException();
+        } catch (ExecutionException e) {
+            log(e);
+            return Collections.emptyList();
+        }
+    }
+}
@@ -8,8 +8,17 @@ import com.africapoa.fn.ds.interfaces.Predicate;
 import com.africapoa.fn.ds.interfaces.Runnable;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -47,6 +56,14 @@ public class FnList<T> implements Iterable<T> {
      */
     private final LazyIterator<T> lazy;
 
+    /**
+     * The Gson used for JSON output, built once: Gson instances are immutable and thread safe.
+     */
+    private static final Gson GSON = new GsonBuilder()
+            .setPrettyPrinting()
+            .setDateFormat("yyyy-MM-dd HH:mm:ss")
+            .create();
+
     /**
      * Private constructor that initializes the FnList with a given LazyIterator.
      * A copy of the provided lazy iterator is made to ensure isolation.
@@ -307,11 +324,62 @@ public class FnList<T> implements Iterable<T> {
      * @return a JSON string representing the FnList.
      */
     public String toJson() {
-        Gson gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .setDateFormat("yyyy-MM-dd HH:mm:ss")
-                .create();
-        return gson.toJson(list());
+        return GSON.toJson(list());
+    }
+
+    /**
+     * Writes the elements as a JSON array, serializing each one as the pipeline produces it.
+     * Neither the list of elements nor the whole JSON text is held in memory.
+     *
+     * @param out    the writer to write to; it is flushed but not closed.
+     * @param pretty whether to indent the output, as {@link #toJson()} does, or write it compactly.
+     * @return true if every element was written.
+     */
+    public boolean writeJson(Writer out, boolean pretty) {
+        try {
+            JsonWriter writer = GSON.newJsonWriter(out);
+            writer.setIndent(pretty ? "  " : "");
+            writer.beginArray();
+            for (T t : this) {
+                if (t == null) writer.nullValue();
+                else GSON.toJson(t, t.getClass(), writer);
+            }
+            writer.endArray();
+            writer.flush();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log(e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the elements as a UTF-8 JSON array to a stream.
+     *
+     * @param out    the stream to write to; it is flushed but not closed.
+     * @param pretty whether to indent the output.
+     * @return true if every element was written.
+     * @see #writeJson(Writer, boolean)
+     */
+    public boolean writeJson(OutputStream out, boolean pretty) {
+        return writeJson(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), pretty);
+    }
+
+    /**
+     * Writes the elements as a UTF-8 JSON array to a file.
+     *
+     * @param file   the file to write, replaced if it exists.
+     * @param pretty whether to indent the output.
+     * @return true if every element was written.
+     * @see #writeJson(Writer, boolean)
+     */
+    public boolean writeJson(Path file, boolean pretty) {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            return writeJson(out, pretty);
+        } catch (IOException e) {
+            log(e);
+            return false;
+        }
     }
 
     /**
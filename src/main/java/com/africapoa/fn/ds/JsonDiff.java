@@ -0,0 +1,141 @@
+package com.africapoa.fn.ds;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the patch that turns one document into another.
+ * <p>
+ * The walk descends both trees side by side and skips every pair of subtrees that are the same,
+ * which their content hashes settle at once when they differ. Objects are compared key by key.
+ * Arrays are first trimmed of their common leading and trailing elements, so a single insertion
+ * or removal anywhere in an array is one operation. The elements left in between are aligned on
+ * their longest common subsequence when there are few enough of them, and otherwise compared
+ * position by position. Values put into the patch are copies, so applying it does not share
+ * nodes between the two documents.
+ * </p>
+ */
+final class JsonDiff {
+    private static final long ALIGNMENT_LIMIT = 1 << 16;
+    private final ContentHash sourceHashes;
+    private final ContentHash targetHashes;
+    private final Patch patch = Patch.create();
+
+    private JsonDiff(ContentHash sourceHashes, ContentHash targetHashes) {
+        this.sourceHashes = sourceHashes;
+        this.targetHashes = targetHashes;
+    }
+
+    /**
+     * Diffs two document trees.
+     *
+     * @param source       the document the patch applies to
+     * @param sourceHashes the hashes of the source document
+     * @param target       the document the patch produces
+     * @param targetHashes the hashes of the target document
+     * @return the patch, empty if the documents are the same
+     * @throws IllegalArgumentException if the roots differ but are not both objects or both arrays,
+     *                                  since a patch cannot replace the root in place
+     */
+    static Patch between(Object source, ContentHash sourceHashes, Object target, ContentHash targetHashes) {
+        JsonDiff diff = new JsonDiff(sourceHashes, targetHashes);
+        Object a = ContentHash.node(source), b = ContentHash.node(target);
+        if (!diff.same(a, b) && !(a instanceof Map<?, ?> && b instanceof Map<?, ?>) && !(a instanceof List<?> && b instanceof List<?>))
+            throw new IllegalArgumentException("the document root cannot be patched in place");
+        diff.compare("", a, b);
+        return diff.patch;
+    }
+
+    private void compare(String path, Object a, Object b) {
+        if (same(a, b)) return;
+        a = ContentHash.node(a);
+        b = ContentHash.node(b);
+        if (a instanceof Map<?, ?> && b instanceof Map<?, ?>) compareObjects(path, (Map<?, ?>) a, (Map<?, ?>) b);
+        else if (a instanceof List<?> && b instanceof List<?>) compareArrays(path, (List<?>) a, (List<?>) b);
+        else patch.replace(path, copy(b));
+    }
+
+    private void compareObjects(String path, Map<?, ?> a, Map<?, ?> b) {
+        for (Object key : a.keySet()) {
+            if (!b.containsKey(key)) patch.remove(path + "/" + escape(key));
+        }
+        for (Map.Entry<?, ?> e : b.entrySet()) {
+            String child = path + "/" + escape(e.getKey());
+            if (!a.containsKey(e.getKey())) patch.add(child, copy(e.getValue()));
+            else compare(child, a.get(e.getKey()), e.getValue());
+        }
+    }
+
+    private void compareArrays(String path, List<?> a, List<?> b) {
+        int start = 0, endA = a.size(), endB = b.size();
+        while (start < endA && start < endB && same(a.get(start), b.get(start))) start++;
+        while (endA > start && endB > start && same(a.get(endA - 1), b.get(endB - 1))) {
+            endA--;
+            endB--;
+        }
+        int n = endA - start, m = endB - start;
+        if (n == 0 || m == 0 || n == m || (long) n * m > ALIGNMENT_LIMIT) {
+            segment(path, a, start, endA, b, start, endB);
+            return;
+        }
+        // Align the elements left in between on their longest common subsequence, so that rows
+        // inserted or removed in several places do not turn every following row into a change.
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i][j] = same(a.get(start + i), b.get(start + j)) ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+        int i = 0, j = 0, fromA = 0, fromB = 0;
+        while (i < n && j < m) {
+            if (lcs[i][j] == lcs[i + 1][j + 1] + 1 && same(a.get(start + i), b.get(start + j))) {
+                segment(path, a, start + fromA, start + i, b, start + fromB, start + j);
+                fromA = ++i;
+                fromB = ++j;
+            } else if (lcs[i + 1][j] >= lcs[i][j + 1]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        segment(path, a, start + fromA, endA, b, start + fromB, endB);
+    }
+
+    /**
+     * Turns the source elements {@code [fromA, toA)} into the target elements {@code [fromB, toB)}.
+     * The operations emitted before have already brought the array up to {@code fromB} into
+     * shape, so the first source element sits at position {@code fromB}. Elements are changed in
+     * place pairwise, then extra ones are removed or missing ones added.
+     */
+    private void segment(String path, List<?> a, int fromA, int toA, List<?> b, int fromB, int toB) {
+        int common = Math.min(toA - fromA, toB - fromB);
+        for (int k = 0; k < common; k++) compare(path + "/" + (fromB + k), a.get(fromA + k), b.get(fromB + k));
+        for (int k = toA - fromA - 1; k >= common; k--) patch.remove(path + "/" + (fromB + k));
+        for (int k = fromB + common; k < toB; k++) patch.add(path + "/" + k, copy(b.get(k)));
+    }
+
+    private boolean same(Object a, Object b) {
+        return sourceHashes.same(a, targetHashes, b);
+    }
+
+    private static String escape(Object key) {
+        return String.valueOf(key).replace("~", "~0").replace("/", "~1");
+    }
+
+    private static Object copy(Object value) {
+        value = ContentHash.node(value);
+        if (value instanceof Map<?, ?>) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) map.put(String.valueOf(e.getKey()), copy(e.getValue()));
+            return map;
+        }
+        if (value instanceof List<?>) {
+            List<Object> list = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) list.add(copy(element));
+            return list;
+        }
+        return value;
+    }
+}
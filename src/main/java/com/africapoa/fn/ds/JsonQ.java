@@ -2,17 +2,27 @@ package com.africapoa.fn.ds;
 
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.africapoa.fn.utils.JsonUtil;
 
 import javax.annotation.Nullable;
 import java.io.*;
 import java.lang.reflect.Type;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +48,23 @@ public class JsonQ {
     private final BoolEvaluator BOOL = new BoolEvaluator();
     private static final Pattern VALUED_TRUE=PathType.VALUED_TRUE.getPattern();
     private static final Pattern VALUED_FALSE=PathType.VALUED_FALSE.getPattern();
+    private static final Pattern FILTER_SEGMENT=Pattern.compile("\\[\\??(\\(.*\\))]");
+    private static final Pattern COLUMN_PATH=Pattern.compile("\\$?\\.?\\[\\*]\\.(\\w+)");
+    private final Map<String, RowIndex> indexes = new LinkedHashMap<>();
+    private boolean indexesStale;
+    private boolean indexDeepScans;
+    private volatile KeyIndex keyIndex;
+    private final List<JsonQView> views = new ArrayList<>();
+    private IdentityHashMap<Object, Integer> rowPositions;
+    private volatile ContentHash hashes;
+    /** Counts the changes made to the tree through this instance and every instance sharing it. */
+    private final AtomicLong edits;
+    /** The count of {@link #edits} that the indexes, views and caches of this instance reflect. */
+    private long editsSeen;
+    private int parallelThreshold = Integer.MAX_VALUE;
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 10_000;
+    private static final int MIN_PARALLEL_CHUNK = 1024;
+    private static final long MMAP_THRESHOLD = 1 << 20;
 
     /**
      * Constructs a JsonQ instance with the given input as the root object.
@@ -45,7 +72,19 @@ public class JsonQ {
      * @param input The root object to query (can be a Map, List, or primitive)
      */
     private JsonQ(Object input) {
+        this(input, new AtomicLong());
+    }
+
+    /**
+     * Constructs a JsonQ instance over part of a tree that other instances can modify too.
+     *
+     * @param input The root object to query
+     * @param edits The change count shared by every instance over the tree
+     */
+    private JsonQ(Object input, AtomicLong edits) {
         root = input;
+        this.edits = edits;
+        editsSeen = edits.get();
     }
 
     /**
@@ -58,6 +97,24 @@ public class JsonQ {
         return new JsonQ(val(json));
     }
 
+    /**
+     * Creates a JsonQ instance from a JSON string using the compact document model.
+     * <p>
+     * Objects share interned key tables per shape, small objects are array backed and numbers
+     * are stored as primitives. The tree still behaves as plain Maps and Lists for every query.
+     * </p>
+     *
+     * @param json The JSON string to parse
+     * @return A new JsonQ instance over a compact tree
+     */
+    public static JsonQ fromJsonCompact(String json) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.setStrictness(Strictness.LENIENT);
+            return new JsonQ(CompactJson.read(reader));
+        } catch (IOException e) {log(e);}
+        return new JsonQ("");
+    }
+
     /**
      * Deserializes a JSON string into an object of the specified class.
      *
@@ -80,20 +137,50 @@ public class JsonQ {
         return new JsonQ(val(stringFromIO(jsonStream)));
     }
 
+    /**
+     * Fetches a JSON document over HTTP.
+     * <p>
+     * Connections are reused between calls and responses are requested compressed. Responses
+     * with an ETag or Last-Modified header are cached, and fetching the same URL again only
+     * downloads the body if the server reports it changed.
+     * </p>
+     *
+     * @param urlString The URL of the document
+     * @return A new JsonQ instance with the parsed document, or an empty one if the fetch fails
+     * @see #cacheURLsIn(Path)
+     */
     public static JsonQ fromURL(String urlString) {
         try {
-            URL url = new URL(urlString);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10000); // 10 seconds
-            connection.setReadTimeout(10000);    // 10 seconds
-            connection.connect();
-            InputStream inputStream = connection.getInputStream();
-            return JsonQ.fromIO(inputStream);
-        } catch (IOException e) {log(e);}
+            return parse(ByteBuffer.wrap(UrlFetcher.fetch(urlString)));
+        } catch (IOException | IllegalArgumentException e) {log(e);}
         return new JsonQ("");
     }
 
+    /**
+     * Fetches a JSON document over HTTP without blocking, as {@link #fromURL(String)} does.
+     *
+     * @param urlString The URL of the document
+     * @return A future of the parsed document; it completes with an empty JsonQ if the fetch fails
+     */
+    public static CompletableFuture<JsonQ> fromURLAsync(String urlString) {
+        return UrlFetcher.fetchAsync(urlString)
+                .thenApply(body -> parse(ByteBuffer.wrap(body)))
+                .exceptionally(e -> {
+                    log("Unable to fetch %s: %s", urlString, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    return new JsonQ("");
+                });
+    }
+
+    /**
+     * Also caches fetched documents on disk, so that {@link #fromURL(String)} can revalidate
+     * them after a restart instead of downloading them again.
+     *
+     * @param dir The cache directory, created when first needed, or null to cache in memory only
+     */
+    public static void cacheURLsIn(Path dir) {
+        UrlFetcher.cacheIn(dir);
+    }
+
     /**
      * Creates a JsonQ instance from a File containing JSON data.
      *
@@ -102,17 +189,117 @@ public class JsonQ {
      */
     public static JsonQ fromIO(File jsonFile) {
         if(!jsonFile.exists()) return new JsonQ("");
-        return new JsonQ(val(stringFromIO(jsonFile)));
+        try {
+            return fromPath(jsonFile.toPath());
+        } catch (IOException e) {log(e);}
+        return new JsonQ("");
+    }
+
+    /**
+     * Runs a query over every matching file of a directory, reading and parsing the files on a
+     * pool of one worker per core. Files of 1 MB or more are memory-mapped.
+     *
+     * @param dir  The directory to search, recursively
+     * @param glob A glob over paths relative to the directory, e.g. {@code *.json} or {@code **}{@code /*.json}
+     * @param path The JSON path to query in each file
+     * @return The matches tagged with their file, file by file in path order
+     * @see #queryAll(Path, String, String, int, boolean)
+     */
+    public static FnList<KeyValue<Path, JsonQ>> queryAll(Path dir, String glob, String path) {
+        return queryAll(dir, glob, path, Runtime.getRuntime().availableProcessors(), true);
+    }
+
+    /**
+     * Runs a query over every matching file of a directory on a bounded pool of workers.
+     * <p>
+     * Files are read and parsed as the list is consumed, at most two per worker ahead of the
+     * consumer. Unreadable or malformed files are logged and contribute no matches.
+     * </p>
+     *
+     * @param dir     The directory to search, recursively
+     * @param glob    A glob over paths relative to the directory
+     * @param path    The JSON path to query in each file
+     * @param threads The number of worker threads
+     * @param ordered Whether matches come file by file in path order, rather than as each file completes
+     * @return The matches, each tagged with the file it came from
+     */
+    public static FnList<KeyValue<Path, JsonQ>> queryAll(Path dir, String glob, String path, int threads, boolean ordered) {
+        List<Path> files = DirectoryQuery.list(dir, glob);
+        return FnList.from(new DirectoryQuery<>(files, file -> {
+            List<KeyValue<Path, JsonQ>> matches = new ArrayList<>();
+            for (Object match : fromPath(file).find(path)) matches.add(new KeyValue<>(file, new JsonQ(match)));
+            return matches;
+        }, threads, ordered));
+    }
+
+    /**
+     * Reads a JSON file as UTF-8, memory-mapping it if it is large. The bytes are parsed
+     * directly; only documents the strict byte parser rejects are decoded and parsed leniently.
+     */
+    private static JsonQ fromPath(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    return new JsonQ(gson.fromJson(reader, Object.class));
+                }
+            }
+            return parse(size < MMAP_THRESHOLD ? ByteBuffer.wrap(Files.readAllBytes(file))
+                    : channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Parses a UTF-8 encoded document, falling back to the lenient text parser for documents
+     * the strict byte parser rejects.
+     */
+    private static JsonQ parse(ByteBuffer bytes) {
+        try {
+            return new JsonQ(Utf8Json.parse(bytes));
+        } catch (IllegalArgumentException e) {
+            bytes.rewind();
+            return new JsonQ(val(StandardCharsets.UTF_8.decode(bytes).toString()));
+        }
     }
 
     /**
      * Creates a JsonQ instance from a Plain Old Java Object (POJO).
+     * <p>
+     * The object is not serialized: queries read its fields through a live, lazily converted
+     * view. The view turns into a private copy the first time it is modified. A List or Map is
+     * viewed too when its first element is a POJO, so that edits to its elements are kept.
+     * </p>
      *
      * @param object The POJO to wrap
      * @return A new JsonQ instance with the POJO as the root
      */
     public static JsonQ fromPOJO(Object object) {
-        return new JsonQ(isPrimitive(object) ? object : getObjectRoot(object));
+        return new JsonQ(pojoRoot(object));
+    }
+
+    private static Object pojoRoot(Object object) {
+        return isPrimitive(object) ? object
+                : holdsObjects(object) ? PojoView.view(object)
+                : getObjectRoot(object);
+    }
+
+    /**
+     * Wraps a node of this document so that changes made through either instance are seen by the other.
+     *
+     * @param node A node of this document, or a list of nodes
+     * @return A new JsonQ instance over the node
+     */
+    JsonQ sharing(Object node) {
+        return new JsonQ(pojoRoot(node), edits);
+    }
+
+    private static boolean holdsObjects(Object container) {
+        Collection<?> elements = container instanceof Map<?, ?> ? ((Map<?, ?>) container).values()
+                : container instanceof List<?> ? (List<?>) container : Collections.emptyList();
+        for (Object element : elements) {
+            if (element != null) return asNode(element) != element;
+        }
+        return false;
     }
 
     /**
@@ -139,12 +326,216 @@ public class JsonQ {
     }
 
     public boolean toFile(File file) {
+        if (!(root instanceof String)) return writeJson(file.toPath(), true);
         try(BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
             writer.write(this.toString());
             return true;}
         catch (IOException e) { log(e); return false;}
     }
 
+    /**
+     * Writes this document as JSON, streaming the tree straight into the writer instead of
+     * building the whole text first.
+     *
+     * @param out    The writer to write to; it is flushed but not closed
+     * @param pretty Whether to indent the output, as {@link #toString()} does, or write it compactly
+     * @return true if the document was written
+     */
+    public boolean writeJson(Writer out, boolean pretty) {
+        try {
+            JsonWriter writer = gson.newJsonWriter(out);
+            writer.setIndent(pretty ? "  " : "");
+            gson.toJson(root, Object.class, writer);
+            writer.flush();
+            return true;
+        } catch (IOException | JsonIOException e) { log(e); return false;}
+    }
+
+    /**
+     * Writes this document as UTF-8 JSON to a stream.
+     *
+     * @param out    The stream to write to; it is flushed but not closed
+     * @param pretty Whether to indent the output
+     * @return true if the document was written
+     * @see #writeJson(Writer, boolean)
+     */
+    public boolean writeJson(OutputStream out, boolean pretty) {
+        return writeJson(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), pretty);
+    }
+
+    /**
+     * Writes this document as UTF-8 JSON to a file.
+     *
+     * @param file   The file to write, replaced if it exists
+     * @param pretty Whether to indent the output
+     * @return true if the document was written
+     * @see #writeJson(Writer, boolean)
+     */
+    public boolean writeJson(Path file, boolean pretty) {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            return writeJson(out, pretty);
+        } catch (IOException e) { log(e); return false;}
+    }
+
+    /**
+     * Writes the elements of this array as CSV or TSV lines, streaming them into the writer.
+     * <p>
+     * Objects are written under a header of every key they use; arrays are written field by
+     * field. Missing values are empty fields, nested values are written as JSON, and strings
+     * that would read back as numbers or booleans are quoted, so {@link #fromCsv} reads the
+     * records back as they were.
+     * </p>
+     *
+     * @param out     The writer to write to; it is flushed but not closed
+     * @param options The format
+     * @return true if the document was written
+     */
+    public boolean writeCsv(Writer out, CsvOptions options) {
+        try {
+            Csv.write(root, out, options);
+            out.flush();
+            return true;
+        } catch (IOException | JsonIOException e) { log(e); return false;}
+    }
+
+    /**
+     * Writes this array as UTF-8 CSV or TSV to a stream.
+     *
+     * @param out     The stream to write to; it is flushed but not closed
+     * @param options The format
+     * @return true if the document was written
+     * @see #writeCsv(Writer, CsvOptions)
+     */
+    public boolean writeCsv(OutputStream out, CsvOptions options) {
+        return writeCsv(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), options);
+    }
+
+    /**
+     * Writes this array as UTF-8 CSV or TSV to a file.
+     *
+     * @param file    The file to write, replaced if it exists
+     * @param options The format
+     * @return true if the document was written
+     * @see #writeCsv(Writer, CsvOptions)
+     */
+    public boolean writeCsv(Path file, CsvOptions options) {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            return writeCsv(out, options);
+        } catch (IOException e) { log(e); return false;}
+    }
+
+    /**
+     * Writes this document in the compact binary snapshot format read by {@link #readBinary(Path)}.
+     * Object keys are stored once in a dictionary, whole numbers as varints and every object and
+     * array with its byte length, so readers can skip subtrees without decoding them.
+     *
+     * @param out The stream to write to; it is not closed
+     * @return true if the document was written
+     */
+    public boolean writeBinary(OutputStream out) {
+        try {
+            BinaryJson.write(root, out);
+            out.flush();
+            return true;
+        } catch (IOException e) { log(e); return false;}
+    }
+
+    /**
+     * Writes this document to a file in the compact binary snapshot format.
+     *
+     * @param file The file to write, replaced if it exists
+     * @return true if the document was written
+     * @see #writeBinary(OutputStream)
+     */
+    public boolean writeBinary(Path file) {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            return writeBinary(out);
+        } catch (IOException e) { log(e); return false;}
+    }
+
+    /**
+     * Opens a binary snapshot written by {@link #writeBinary(Path)}.
+     * <p>
+     * The file is memory-mapped and nothing is decoded up front: each object or array is decoded
+     * one level at a time when it is first read, so loading is near instant and untouched
+     * subtrees cost nothing. The document is read-only; use {@link #compact()} or
+     * {@link #persistent()} for a copy that can be changed.
+     * </p>
+     *
+     * @param file The snapshot file
+     * @return A new JsonQ over the snapshot, or an empty one if it cannot be read
+     */
+    public static JsonQ readBinary(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new JsonQ(BinaryJson.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        } catch (IOException | IllegalArgumentException e) {log(e);}
+        return new JsonQ("");
+    }
+
+    /**
+     * Reads a binary snapshot from a stream into memory, decoding it lazily as
+     * {@link #readBinary(Path)} does.
+     *
+     * @param in The stream to read; it is not closed
+     * @return A new JsonQ over the snapshot, or an empty one if it cannot be read
+     */
+    public static JsonQ readBinary(InputStream in) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            for (int n; (n = in.read(chunk)) > 0; ) bytes.write(chunk, 0, n);
+            return new JsonQ(BinaryJson.read(ByteBuffer.wrap(bytes.toByteArray())));
+        } catch (IOException | IllegalArgumentException e) {log(e);}
+        return new JsonQ("");
+    }
+
+    /**
+     * Reads a UTF-8 CSV or TSV file as an array of records.
+     * <p>
+     * The text is tokenized in a single pass. Each line becomes an object keyed by the header,
+     * with numbers and booleans typed as in JSON unless {@link CsvOptions#inferTypes} is off.
+     * Records share one key table; with {@link CsvOptions#columnar} the values go straight into
+     * typed column vectors instead, without an object per row.
+     * </p>
+     *
+     * @param file    The file to read
+     * @param options The format, e.g. {@code CsvOptions.csv()}
+     * @return A new JsonQ over the records, or an empty one if the file cannot be read
+     */
+    public static JsonQ fromCsv(Path file, CsvOptions options) {
+        try (Reader in = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            return new JsonQ(Csv.read(in, options));
+        } catch (IOException e) {log(e);}
+        return new JsonQ("");
+    }
+
+    /**
+     * Reads UTF-8 CSV or TSV text from a stream, as {@link #fromCsv(Path, CsvOptions)} does.
+     *
+     * @param in      The stream to read; it is not closed
+     * @param options The format
+     * @return A new JsonQ over the records, or an empty one if the stream cannot be read
+     */
+    public static JsonQ fromCsv(InputStream in, CsvOptions options) {
+        try {
+            return new JsonQ(Csv.read(new InputStreamReader(in, StandardCharsets.UTF_8), options));
+        } catch (IOException e) {log(e);}
+        return new JsonQ("");
+    }
+
+    /**
+     * Turns rows of cell values, such as {@code GSheet.getRangeValues} returns, into an array of
+     * records the way {@link #fromCsv(Path, CsvOptions)} reads lines. String cells are typed
+     * unless {@link CsvOptions#inferTypes} is off, and empty cells are left out.
+     *
+     * @param rows    The rows; with a header, the first one names the columns
+     * @param options How to load the rows; the delimiter is not used
+     * @return A new JsonQ over the records
+     */
+    public static JsonQ fromRows(List<? extends List<?>> rows, CsvOptions options) {
+        return new JsonQ(Csv.fromRows(rows, options));
+    }
+
 
 
     /**
@@ -181,6 +572,86 @@ public class JsonQ {
                 : null;
     }
 
+    /**
+     * Copies this document into the compact document model.
+     *
+     * @return A new JsonQ instance over a compact copy of this document
+     * @see #fromJsonCompact(String)
+     */
+    public JsonQ compact() {
+        return new JsonQ(CompactJson.copyOf(root));
+    }
+
+    /**
+     * Copies this document into the persistent document model.
+     * <p>
+     * A persistent document is never modified in place: {@link #with(String, Object)},
+     * {@link #without(String)} and {@link #plus(Object)} return a new JsonQ sharing every
+     * unchanged subtree with this one, so old versions stay valid and can be read from other
+     * threads without locking. Objects are hash array mapped tries and arrays are 32-way vector
+     * tries, both updated in O(log n). The in-place {@link #put(String, Object)} and
+     * {@link #add(Object)} throw UnsupportedOperationException on it.
+     * </p>
+     *
+     * @return This instance if it is already persistent, otherwise a persistent copy
+     */
+    public JsonQ persistent() {
+        return PersistentJson.isPersistent(root) ? this : new JsonQ(PersistentJson.copyOf(root));
+    }
+
+    /**
+     * Takes a snapshot that later updates of this document cannot affect.
+     *
+     * @return A persistent JsonQ over the current state, in O(1) if this document is persistent
+     * @see #persistent()
+     */
+    public JsonQ snapshot() {
+        return PersistentJson.isPersistent(root) ? new JsonQ(root) : persistent();
+    }
+
+    /**
+     * Returns a persistent copy of this document with a value set, creating missing objects and
+     * arrays along the path. This document is left unchanged.
+     *
+     * @param jsonPath A concrete path such as {@code $.store.book[0].title}, or "$" for the root
+     * @param value    The value to set
+     * @return The updated document
+     * @throws IllegalArgumentException if the path has wildcards or filters, or an array position past the end
+     */
+    public JsonQ with(String jsonPath, Object value) {
+        Object val = value instanceof JsonQ ? ((JsonQ) value).root : value;
+        Object persistentValue = PersistentJson.copyOf(val);
+        return new JsonQ(PersistentJson.assoc(persistent().root, PersistentJson.keysOf(jsonPath), 0, persistentValue));
+    }
+
+    /**
+     * Returns a persistent copy of this document without the value at a path. This document is
+     * left unchanged.
+     *
+     * @param jsonPath A concrete path such as {@code $.store.book[0]}
+     * @return The updated document, sharing its root with this one if nothing is at the path
+     * @throws IllegalArgumentException if the path has wildcards or filters
+     */
+    public JsonQ without(String jsonPath) {
+        List<Object> keys = PersistentJson.keysOf(jsonPath);
+        JsonQ base = persistent();
+        return keys.isEmpty() ? new JsonQ(null) : new JsonQ(PersistentJson.dissoc(base.root, keys, 0));
+    }
+
+    /**
+     * Returns a persistent copy of this document with a value appended to the root array.
+     *
+     * @param value The value to append
+     * @return The updated document
+     * @throws IllegalArgumentException if the root is not an array
+     */
+    public JsonQ plus(Object value) {
+        JsonQ base = persistent();
+        if (!(base.root instanceof PersistentVector)) throw new IllegalArgumentException("The document root is not an array");
+        Object val = value instanceof JsonQ ? ((JsonQ) value).root : value;
+        return new JsonQ(((PersistentVector) base.root).plus(PersistentJson.copyOf(val)));
+    }
+
     /**
      * Retrieves a list of transformed values from a JSON path.
      *
@@ -212,6 +683,68 @@ public class JsonQ {
         return list;
     }
 
+    /**
+     * Orders the rows of the root array by a field.
+     *
+     * @param field     The field to order by
+     * @param ascending Whether smaller values come first
+     * @return A JsonQ over the ordered rows
+     * @see #orderBy(String...)
+     */
+    public JsonQ orderBy(String field, boolean ascending) {
+        return orderBy(new String[]{field}, new boolean[]{ascending});
+    }
+
+    /**
+     * Orders the rows of the root array by one or more fields, each optionally followed by
+     * {@code asc} or {@code desc}, e.g. {@code orderBy("score desc", "name")}.
+     * <p>
+     * Numbers sort numerically and before strings, rows missing a field come last and ties keep
+     * their original order. Sorting is deferred, so a following {@link #limit(int)} only keeps
+     * the top rows in a bounded heap, and ordering by a single field with a
+     * {@link #sortedIndex(String)} reads the order straight from the index. The result is read-only.
+     * </p>
+     *
+     * @param keys The fields to order by, most significant first
+     * @return A JsonQ over the ordered rows, or this instance if the root is not an array
+     */
+    public JsonQ orderBy(String... keys) {
+        String[] fields = new String[keys.length];
+        boolean[] ascending = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            String[] parts = keys[i].trim().split("\\s+");
+            fields[i] = parts[0].replaceFirst("^@\\.", "");
+            ascending[i] = parts.length < 2 || !parts[1].equalsIgnoreCase("desc");
+        }
+        return orderBy(fields, ascending);
+    }
+
+    private JsonQ orderBy(String[] fields, boolean[] ascending) {
+        if (!(root instanceof List<?>)) return this;
+        List<?> rows = (List<?>) root;
+        OrderedRows ordered = null;
+        if (fields.length == 1 && indexes.containsKey(fields[0])) {
+            refreshIndexes();
+            ordered = OrderedRows.byIndex(rows, indexes.get(fields[0]), ascending[0]);
+        }
+        return new JsonQ(ordered != null ? ordered : OrderedRows.by(rows, fields, ascending), edits);
+    }
+
+    /**
+     * Keeps the first rows of the root array. After {@link #orderBy(String...)} this selects the
+     * top rows without sorting the rest.
+     *
+     * @param count The number of rows to keep
+     * @return A JsonQ over at most {@code count} rows, or this instance if the root is not an array
+     */
+    public JsonQ limit(int count) {
+        sync();
+        if (root instanceof OrderedRows) return new JsonQ(((OrderedRows) root).limit(count), edits);
+        if (!(root instanceof List<?>)) return this;
+        List<?> rows = (List<?>) root;
+        return new JsonQ(new ArrayList<>(rows.subList(0, Math.min(Math.max(count, 0), rows.size()))), edits);
+    }
+
     /**
      * Selects specific columns from a collection of objects.
      *
@@ -219,6 +752,7 @@ public class JsonQ {
      * @return A new JsonQ instance with the selected data
      */
     public JsonQ select(String ...columns) {
+        if (root instanceof ColumnTable) return fromTable(((ColumnTable) root).select(columns));
         List<Object> results=new ArrayList<>();
         collectionForEach(root,(k,v)->{
             if(v instanceof Map<?,?>){
@@ -241,6 +775,15 @@ public class JsonQ {
      * @return A list of integers from the specified column
      */
     public List<Integer> intColumn(String columnName) {
+        if (root instanceof ColumnTable) {
+            List<Integer> ints = new ArrayList<>();
+            Column column = ((ColumnTable) root).column(columnName);
+            for (int i = 0, len = column == null ? 0 : column.size; i < len; i++) {
+                if (column instanceof Column.Numeric && !column.isNull(i)) ints.add((int) ((Column.Numeric) column).number(i));
+                else if (column.get(i) instanceof Number) ints.add(((Number) column.get(i)).intValue());
+            }
+            return ints;
+        }
         String path= String.format("[(@.%s~'\\d+\\.?\\d*')].%s",columnName,columnName);
         return fromResults(getListImpl(path, a -> a instanceof Number ? ((Number) a).intValue() : null)).val();
     }
@@ -262,8 +805,12 @@ public class JsonQ {
      * @return A list of Date objects from the specified column
      */
     public List<Date> dateColumn(String columnName) {
-        String path= String.format("[(@.%s~'\\d{2,4}-\\d{2}-\\d{2,4}')].%s",columnName,columnName);
-        return getDates(path);
+        List<Date> dates = new ArrayList<>();
+        for (String d : stringColumn(columnName)) {
+            Date date = getDate(d);
+            if (date != null) dates.add(date);
+        }
+        return dates;
     }
     /**
      * Retrieves a list of Date objects from a JSON path.
@@ -287,14 +834,55 @@ public class JsonQ {
      * @return The parsed Date object, or null if parsing fails
      */
     private Date getDate(String date){
-        try {
-            if(date.matches("\\d{4}-\\d{2}-\\d{2}"))
-                return DATE_FORMATS.get(0).parse(date);
-            else if (date.matches("\\d{2}-\\d{2}-\\d{4}"))
-                return DATE_FORMATS.get(1).parse(date);
+        long day = DatePattern.epochDay(date, DATE_PATTERNS);
+        return day == DatePattern.MALFORMED ? null : toDate(LocalDate.ofEpochDay(day));
+    }
+
+    /**
+     * Reads the dates a JSON path matches as {@link LocalDate}s.
+     *
+     * @param path      The JSON path to query
+     * @param malformed Receives the matches that are not dates in any of the formats, may be null
+     * @param formats   {@link java.time.format.DateTimeFormatter} patterns tried in order; none
+     *                  means {@code uuuu-MM-dd} then {@code dd-MM-uuuu}
+     * @return The dates, in document order
+     * @throws IllegalArgumentException if a format is not a valid pattern
+     */
+    public List<LocalDate> localDates(String path, @Nullable List<String> malformed, String... formats) {
+        int[] days = epochDays(path, malformed, formats);
+        List<LocalDate> dates = new ArrayList<>(days.length);
+        for (int day : days) dates.add(LocalDate.ofEpochDay(day));
+        return dates;
+    }
+
+    /**
+     * Reads the dates a JSON path matches as days since 1970-01-01, without creating an object
+     * per date. Numeric formats such as the defaults are read by a hand written digit scanner;
+     * days and months past their end roll over into the next month or year.
+     *
+     * @param path      The JSON path to query, e.g. {@code [*].date}
+     * @param malformed Receives the matches that are not dates in any of the formats, may be null
+     * @param formats   {@link java.time.format.DateTimeFormatter} patterns tried in order; none
+     *                  means {@code uuuu-MM-dd} then {@code dd-MM-uuuu}
+     * @return The epoch days of the dates, in document order
+     * @throws IllegalArgumentException if a format is not a valid pattern
+     */
+    public int[] epochDays(String path, @Nullable List<String> malformed, String... formats) {
+        DatePattern[] patterns = DatePattern.all(formats);
+        List<Object> matches = find(path);
+        int[] days = new int[matches.size()];
+        int count = 0;
+        for (Object match : matches) {
+            String text = match instanceof String ? (String) match : gson.toJson(match);
+            long day = DatePattern.epochDay(text, patterns);
+            if (day == (int) day) days[count++] = (int) day;
+            else if (malformed != null) malformed.add(text);
         }
-        catch (ParseException e) {log(e);}
-        return null;
+        return count == days.length ? days : Arrays.copyOf(days, count);
+    }
+
+    private static Date toDate(LocalDate date) {
+        return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
     }
 
     /**
@@ -304,6 +892,15 @@ public class JsonQ {
      * @return A list of strings from the specified column
      */
     public List<String> stringColumn(String columnName) {
+        if (root instanceof ColumnTable) {
+            List<String> strings = new ArrayList<>();
+            Column column = ((ColumnTable) root).column(columnName);
+            for (int i = 0, len = column == null ? 0 : column.size; i < len; i++) {
+                Object v = column.get(i);
+                if (v != null) strings.add(v instanceof String ? (String) v : gson.toJson(v));
+            }
+            return strings;
+        }
         return getStrings("[*]."+columnName);
     }
 
@@ -380,7 +977,7 @@ public class JsonQ {
         condition=condition.replaceAll("\\band\\b","&&")
                 .replaceAll("\\bor\\b","||")
                 .replaceAll("\\$?(\\w+)","@.$1")
-                .replaceAll("=+","==");
+                .replaceAll("(?<![<>!])=+","==");
 
         for(Object v :values){
             if(!isPrimitive(v)) continue;
@@ -388,7 +985,16 @@ public class JsonQ {
             condition=condition.replaceFirst("\\?",escapeRGX(value));
         }
         condition=String.format("(%s)",condition);
-        List<Object> results=filter(condition,root,new ArrayList<>());
+        List<Comparison> comparisons = Comparison.parseAll(condition);
+        List<Object> indexed = indexedRows(comparisons);
+        if (indexed != null) return fromResults(indexed);
+        ColumnPredicate predicate = root instanceof ColumnTable ? ColumnPredicate.parse(condition) : null;
+        if (predicate != null) {
+            ColumnTable table = (ColumnTable) root;
+            return fromTable(table.take(table.where(predicate)));
+        }
+        List<Object> results=new ArrayList<>();
+        filter(condition,root,results::add);
         return fromResults(results);
     }
     /**
@@ -414,13 +1020,252 @@ public class JsonQ {
             Object o=it.next();
             if(o==null)it.remove();
         }
-        return fromPOJO(results.size()==1?results.get(0):results);
+        return sharing(results.size()==1?results.get(0):results);
+    }
+
+    /**
+     * Creates a JsonQ instance over a column table, unwrapping single rows like {@link #fromResults(List)}.
+     *
+     * @param table The table of results
+     * @return A new JsonQ instance over the table, or over its only row
+     */
+    private JsonQ fromTable(ColumnTable table){
+        return new JsonQ(table.size()==1 ? table.get(0) : table);
     }
 
     public JsonQ get(String path) {
         return fromResults(find(path));
     }
 
+    /**
+     * Queries several JSON paths in one walk of the document.
+     *
+     * @param paths The JSON paths to query
+     * @return The results of each path, keyed by path in the given order
+     * @see #getAll(PathBatch)
+     */
+    public Map<String, JsonQ> getAll(String... paths) {
+        return getAll(PathBatch.of(paths));
+    }
+
+    /**
+     * Queries a compiled batch of JSON paths in one walk of the document. Paths sharing leading
+     * segments are evaluated together, so each shared prefix is traversed once.
+     *
+     * @param batch The compiled paths
+     * @return The results of each path, keyed by path in the batch order, as {@link #get(String)} would return them
+     */
+    public Map<String, JsonQ> getAll(PathBatch batch) {
+        Map<String, List<Object>> found = new HashMap<>();
+        for (String path : batch.root.ends) found.put(path, Collections.singletonList(root));
+        if (!isPrimitive(root)) {
+            for (PathBatch.Node child : batch.root.children.values()) {
+                List<Object> indexed = selectedRows(child.segment);
+                if (indexed != null) collectBatch(child, indexed, found);
+                else walkBatch(child, Collections.singletonList(root), found);
+            }
+        }
+        Map<String, JsonQ> results = new LinkedHashMap<>();
+        for (String path : batch.paths())
+            results.put(path, fromResults(new ArrayList<>(found.getOrDefault(path, Collections.emptyList()))));
+        return results;
+    }
+
+    private void walkBatch(PathBatch.Node node, List<Object> current, Map<String, List<Object>> found) {
+        PathHandler func = getPathHandler(node.source, node.segment);
+        if (func == null) return;
+        List<Object> next = new ArrayList<>();
+        collectionForEach(current, (key, obj) -> func.handle(node.segment, obj, next::add));
+        collectBatch(node, next, found);
+    }
+
+    private void collectBatch(PathBatch.Node node, List<Object> matches, Map<String, List<Object>> found) {
+        if (!node.ends.isEmpty()) {
+            List<Object> nonNull = new ArrayList<>(matches.size());
+            for (Object o : matches) if (o != null) nonNull.add(o);
+            for (String path : node.ends) found.put(path, nonNull);
+        }
+        if (matches.isEmpty()) return;
+        for (PathBatch.Node child : node.children.values()) walkBatch(child, matches, found);
+    }
+
+    /**
+     * Builds a hash index on a field of the root array.
+     * <p>
+     * {@link #where} conditions and {@code [?(...)]} filters at the start of a {@link #get} path
+     * that test the field for equality are then answered from the index instead of scanning
+     * every element. The index follows {@link #add} and {@link #put}, updating only the rows they
+     * touch; a change it cannot place, such as one made through another JsonQ over the same rows,
+     * rebuilds it lazily on the next lookup.
+     * </p>
+     *
+     * @param field The field of the array elements to index
+     * @return This instance, for chaining
+     */
+    public JsonQ index(String field) {
+        return addIndex(field, false);
+    }
+
+    /**
+     * Builds a sorted index on a field of the root array. Works like {@link #index(String)}
+     * but also answers {@code <}, {@code <=}, {@code >} and {@code >=} comparisons.
+     *
+     * @param field The field of the array elements to index
+     * @return This instance, for chaining
+     */
+    public JsonQ sortedIndex(String field) {
+        return addIndex(field, true);
+    }
+
+    /**
+     * Builds a trigram index on a string field of the root array for {@code ~} regex filters.
+     * <p>
+     * A filter such as {@code [?(@.name ~ '.*smith.*')]} then runs its regex only on the elements
+     * containing every literal the regex requires, here those with "smi", "mit" and "ith" in the
+     * name. Regexes without a literal of three or more characters, or using alternation, still
+     * scan every element. The index can sit beside an {@link #index(String)} on the same field and
+     * is maintained the same way.
+     * </p>
+     *
+     * @param field The field of the array elements to index
+     * @return This instance, for chaining
+     */
+    public JsonQ textIndex(String field) {
+        sync();
+        if (root instanceof List<?>) indexes.put("~" + field, RowIndex.text((List<?>) root, field));
+        return this;
+    }
+
+    private JsonQ addIndex(String field, boolean sorted) {
+        sync();
+        if (root instanceof List<?>) indexes.put(field, RowIndex.build((List<?>) root, field, sorted));
+        return this;
+    }
+
+    /**
+     * Enables an inverted index from key names to the objects holding them for {@code ..key}
+     * scans that start at the root of this document.
+     * <p>
+     * The index is built on the first such scan and reused afterwards, so repeated deep scans
+     * cost about as much as the number of matches. It is dropped on {@link #put} and {@link #add}.
+     * </p>
+     *
+     * @return This instance, for chaining
+     */
+    public JsonQ indexDeepScans() {
+        indexDeepScans = true;
+        return this;
+    }
+
+    /**
+     * Answers a conjunction of comparisons on the root array through an index.
+     *
+     * @param comparisons The comparisons, all of which must hold
+     * @return The matching elements in document order, or null if no index can answer
+     */
+    private List<Object> indexedRows(@Nullable List<Comparison> comparisons) {
+        if (indexes.isEmpty() || comparisons == null || !(root instanceof List<?>)) return null;
+        refreshIndexes();
+        List<?> rows = (List<?>) root;
+        for (Comparison comparison : comparisons) {
+            RowIndex index = indexes.get(comparison.op.equals("~") ? "~" + comparison.field : comparison.field);
+            int[] positions = index == null ? null : index.lookup(comparison);
+            if (positions == null) continue;
+            List<Object> results = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                Object row = rows.get(position);
+                boolean passes = true;
+                for (Comparison other : comparisons) {
+                    passes &= other == comparison || other.test(RowIndex.fieldOf(row, other.field));
+                }
+                if (passes) results.add(asNode(row));
+            }
+            return results;
+        }
+        return null;
+    }
+
+    /**
+     * Answers a {@code [?(...)]} segment applied to the root array without visiting the rows one
+     * by one: through an index, or over the column vectors when the root is columnar.
+     *
+     * @param segment The first path segment
+     * @return The matching elements in document order, or null if the segment must be walked
+     */
+    private List<Object> selectedRows(String segment) {
+        List<Object> indexed = indexedRows(filterComparisons(segment));
+        if (indexed != null || !(root instanceof ColumnTable)) return indexed;
+        Matcher m = FILTER_SEGMENT.matcher(segment);
+        ColumnPredicate predicate = m.matches() ? ColumnPredicate.parse(m.group(1)) : null;
+        if (predicate == null) return null;
+        ColumnTable table = (ColumnTable) root;
+        long[] selected = table.where(predicate);
+        List<Object> rows = new ArrayList<>();
+        for (int w = 0; w < selected.length; w++) {
+            for (long word = selected[w]; word != 0; word &= word - 1) rows.add(table.get((w << 6) + Long.numberOfTrailingZeros(word)));
+        }
+        return rows;
+    }
+
+    private void refreshIndexes() {
+        sync();
+        if (!indexesStale) return;
+        indexes.replaceAll((field, index) -> index.rebuild((List<?>) root));
+        indexesStale = false;
+    }
+
+    /**
+     * Evaluates queries on this document in parallel wherever a path step has to go through at
+     * least {@code threshold} array elements, such as a {@code [?(...)]} filter over a large
+     * array. The elements are split into chunks run on the common fork-join pool and the
+     * results keep document order. Filters and path steps must then be free of side effects,
+     * which the built-in ones are.
+     *
+     * @param threshold The smallest array worth splitting
+     * @return This instance, for chaining
+     */
+    public JsonQ parallel(int threshold) {
+        parallelThreshold = Math.max(threshold, 1);
+        return this;
+    }
+
+    /**
+     * Evaluates queries on this document in parallel over arrays of 10,000 elements or more.
+     *
+     * @return This instance, for chaining
+     * @see #parallel(int)
+     */
+    public JsonQ parallel() {
+        return parallel(DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Evaluates queries on this document on the calling thread only, which is the default.
+     *
+     * @return This instance, for chaining
+     */
+    public JsonQ sequential() {
+        parallelThreshold = Integer.MAX_VALUE;
+        return this;
+    }
+
+    /**
+     * Converts an array of objects into columnar form.
+     * <p>
+     * Each field is stored once as a typed column vector (int, long, double, dictionary encoded
+     * strings or booleans, with a null bitmap). The result is read-only. {@link #intColumn},
+     * {@link #stringColumn}, {@link #dateColumn}, {@link #select} and simple {@link #where}
+     * conditions then scan the column vectors directly, while other queries see the rows as Maps.
+     * </p>
+     *
+     * @return A new JsonQ instance over the columns, or this instance if the root is not an array of objects
+     */
+    public JsonQ columnar() {
+        if (!(root instanceof List<?>) || root instanceof ColumnTable) return this;
+        ColumnTable table = ColumnTable.from((List<?>) root);
+        return table != null ? new JsonQ(table) : this;
+    }
+
     /**
      * Returns the root object, cast to the desired type.
      *
@@ -433,7 +1278,7 @@ public class JsonQ {
 
 
     public Integer asInt(String jsonPath) {
-        Object x=get(jsonPath).root;
+        Object x=findFirst(jsonPath);
         return x instanceof Number? ((Number)x).intValue():null;
     }
 
@@ -441,15 +1286,139 @@ public class JsonQ {
         return asInt(".");
     }
 
+    /**
+     * Sums the numeric matches of a JSON path in a single pass. Other matches are skipped.
+     *
+     * @param jsonPath The JSON path to query, e.g. {@code $.orders[*].amount}
+     * @return The sum, 0 if nothing numeric matches
+     */
+    public double sum(String jsonPath) {
+        return aggregate(jsonPath, false).result(Aggregate.SUM);
+    }
+
+    /**
+     * Averages the numeric matches of a JSON path in a single pass.
+     *
+     * @param jsonPath The JSON path to query
+     * @return The mean, NaN if nothing numeric matches
+     */
+    public double avg(String jsonPath) {
+        return aggregate(jsonPath, false).result(Aggregate.AVG);
+    }
+
+    /**
+     * Finds the smallest numeric match of a JSON path.
+     *
+     * @param jsonPath The JSON path to query
+     * @return The minimum, NaN if nothing numeric matches
+     */
+    public double min(String jsonPath) {
+        return aggregate(jsonPath, false).result(Aggregate.MIN);
+    }
+
+    /**
+     * Finds the largest numeric match of a JSON path.
+     *
+     * @param jsonPath The JSON path to query
+     * @return The maximum, NaN if nothing numeric matches
+     */
+    public double max(String jsonPath) {
+        return aggregate(jsonPath, false).result(Aggregate.MAX);
+    }
+
+    /**
+     * Counts the matches of a JSON path, of any type, without collecting them.
+     *
+     * @param jsonPath The JSON path to query
+     * @return The number of non-null matches
+     */
+    public long count(String jsonPath) {
+        return aggregate(jsonPath, false).result(Aggregate.COUNT).longValue();
+    }
+
+    /**
+     * Computes a percentile of the numeric matches of a JSON path, interpolating linearly
+     * between the two closest values.
+     *
+     * @param jsonPath The JSON path to query
+     * @param percent  The percentile, from 0 to 100
+     * @return The percentile, NaN if nothing numeric matches
+     */
+    public double percentile(String jsonPath, double percent) {
+        if (!(percent >= 0 && percent <= 100)) throw new IllegalArgumentException("Percentile out of range: " + percent);
+        return aggregate(jsonPath, true).percentile(percent);
+    }
+
+    /**
+     * Groups the rows of the root array by a key and aggregates a value per group, in one pass.
+     * Both paths are relative to each row; rows without a key are skipped.
+     *
+     * @param keyPath   The path of the group key in a row, e.g. "region"
+     * @param aggPath   The path of the aggregated value in a row, e.g. "amount"
+     * @param aggregate The aggregate to compute per group
+     * @return The aggregate of each group, keyed by the string form of the key, in order of first appearance
+     */
+    public Map<String, Double> groupBy(String keyPath, String aggPath, Aggregate aggregate) {
+        List<String> keySegments = pathEvaluator.evaluatePath(keyPath);
+        List<String> aggSegments = pathEvaluator.evaluatePath(aggPath);
+        PathHandler[] keyHandlers = handlersFor(keyPath, keySegments, 0);
+        PathHandler[] aggHandlers = handlersFor(aggPath, aggSegments, 0);
+        if (keyHandlers == null || aggHandlers == null || isPrimitive(root)) return new LinkedHashMap<>();
+        Map<String, Accumulator> groups = new LinkedHashMap<>();
+        Mutable<Object> key = new Mutable<>(null);
+        Sink firstKey = obj -> {
+            key.value = obj;
+            return false;
+        };
+        Iterable<?> rows = root instanceof List<?> ? (List<?>) root : Collections.singletonList(root);
+        for (Object row : rows) {
+            key.value = null;
+            descend(keySegments, keyHandlers, 0, asNode(row), firstKey);
+            if (key.value == null) continue;
+            Accumulator group = groups.computeIfAbsent(String.valueOf(key.value), k -> new Accumulator(false));
+            descend(aggSegments, aggHandlers, 0, asNode(row), group);
+        }
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Accumulator> e : groups.entrySet()) results.put(e.getKey(), e.getValue().result(aggregate));
+        return results;
+    }
+
+    private Accumulator aggregate(String jsonPath, boolean keepValues) {
+        Accumulator accumulator = new Accumulator(keepValues);
+        Column.Numeric column = numericColumn(jsonPath);
+        if (column == null) {
+            forEachMatch(jsonPath, accumulator);
+            return accumulator;
+        }
+        for (int row = 0; row < column.size; row++) {
+            if (!column.isNull(row)) accumulator.add(column.number(row));
+        }
+        return accumulator;
+    }
+
+    /**
+     * Returns the column vector a {@code [*].field} path reads, if the root is columnar.
+     */
+    private Column.Numeric numericColumn(String jsonPath) {
+        if (!(root instanceof ColumnTable)) return null;
+        Matcher m = COLUMN_PATH.matcher(jsonPath);
+        Column column = m.matches() ? ((ColumnTable) root).column(m.group(1)) : null;
+        return column instanceof Column.Numeric ? (Column.Numeric) column : null;
+    }
+
     /**
      * Checks if the JSON data is empty.
      *
      * @return True if the data is empty, false otherwise
      */
     public boolean isEmpty() {
-        return root == null || (root instanceof Map && ((Map<?, ?>) root).isEmpty()) ||
-                (root instanceof Collection && ((Collection<?>) root).isEmpty()) ||
-                (root instanceof String && ((String) root).isEmpty());
+        return isEmpty(root);
+    }
+
+    private static boolean isEmpty(Object value) {
+        return value == null || (value instanceof Map && ((Map<?, ?>) value).isEmpty()) ||
+                (value instanceof Collection && ((Collection<?>) value).isEmpty()) ||
+                (value instanceof String && ((String) value).isEmpty());
     }
 
     /**
@@ -484,11 +1453,9 @@ public class JsonQ {
      * @return The transformed value, or null if not found
      */
     public <T> T first(String jsonPath, JFunction<Object, T> changer) {
-        JsonQ jq = get(jsonPath);
-        if (!jq.isEmpty()) {
-            return changer.apply(jq.root);
-        }
-        return null;
+        Object found = findFirst(jsonPath);
+        Object value = isPrimitive(found) ? found : getObjectRoot(found);
+        return isEmpty(value) ? null : changer.apply(value);
     }
 
     /**
@@ -508,7 +1475,17 @@ public class JsonQ {
      * @param value The value to add
      */
     public void add( Object value) {
-        put("", false, "", value);
+        sync();
+        putAll("", false, "", value);
+        keyIndex = null;
+        hashes = null;
+        if (!views.isEmpty()) rowAdded();
+        if (!indexes.isEmpty() && !indexesStale && root instanceof List<?>) {
+            List<?> rows = (List<?>) root;
+            int row = rows.size() - 1;
+            for (RowIndex index : indexes.values()) index.add(row, RowIndex.fieldOf(rows.get(row), index.field));
+        }
+        editsSeen = edits.incrementAndGet();
     }
 
     /**
@@ -519,10 +1496,190 @@ public class JsonQ {
      * @param values   Pairs of keys and values to set
      */
     public void put(String jsonPath, boolean override, Object... values) {
+        changed(putAll(jsonPath, override, values));
+    }
+
+    /**
+     * Applies a batch of changes in place. Operations targeting the same parent share one lookup
+     * of that parent, instead of one {@link #find(String)} per change as with {@link #put(String, Object)}.
+     *
+     * @param patch The changes to apply
+     * @return true if every operation applied, false if any failed; an atomic patch then leaves the document unchanged
+     */
+    public boolean apply(Patch patch) {
+        boolean applied = patch.applyTo(root);
+        changed(null);
+        return applied;
+    }
+
+    /**
+     * Computes a content hash of this document. Documents that are structurally equal, with the
+     * same values and the same keys in any order, have the same hash. The hash of every object
+     * and array is cached, so hashing again, comparing or diffing is nearly free until this
+     * document is changed, through this instance or any JsonQ obtained from it.
+     *
+     * @return The hash of the document's content
+     */
+    public long contentHash() {
+        return hashes().of(root);
+    }
+
+    /**
+     * Compares the content of two documents without serializing them. Subtrees whose content
+     * hashes differ are rejected at once; numbers compare by value and object keys in any order.
+     *
+     * @param other The document to compare with
+     * @return true if both documents hold the same values
+     */
+    public boolean equalsStructurally(JsonQ other) {
+        return other != null && hashes().same(root, other.hashes(), other.root);
+    }
+
+    /**
+     * Computes the changes that turn this document into another without serializing either.
+     * Subtrees that are the same produce no operations, and content hashes tell changed
+     * subtrees apart without walking them.
+     *
+     * @param other The document to reach
+     * @return A patch that {@link #apply(Patch) applied} to this document makes it equal to other;
+     *         empty if the documents are already equal
+     * @throws IllegalArgumentException if the roots differ and are not both objects or both arrays
+     */
+    public Patch diff(JsonQ other) {
+        return JsonDiff.between(root, hashes(), other.root, other.hashes());
+    }
+
+    private ContentHash hashes() {
+        sync();
+        ContentHash h = hashes;
+        if (h == null) hashes = h = new ContentHash(root);
+        return h;
+    }
+
+    /**
+     * Registers a view of a query whose results are maintained as this document changes,
+     * instead of being recomputed on every read.
+     * <p>
+     * A query that starts by selecting rows of the root array, with {@code [*]} or a
+     * {@code [?(...)]} filter, is maintained row by row: {@link #add} evaluates it on the new
+     * row only, and a {@link #put} that changes fields of rows re-evaluates only those rows. Any
+     * other change recomputes the view the next time it is read.
+     * </p>
+     *
+     * @param query The JSON path to maintain, e.g. {@code $[?(@.status == 'open')].amount}
+     * @return The view; close it once it is no longer needed
+     */
+    public JsonQView view(String query) {
+        List<String> paths = pathEvaluator.evaluatePath(query);
+        boolean rowWise = root instanceof List<?> && !paths.isEmpty()
+                && ("[*]".equals(paths.get(0)) || pathEvaluator.getMatching(paths.get(0)) == PathType.PATH_EXPRESSION);
+        JsonQView view = new JsonQView(this, query, rowWise);
+        views.add(view);
+        return view;
+    }
+
+    void unview(JsonQView view) {
+        views.remove(view);
+    }
+
+    /** Runs a query for a view, returning every match. */
+    List<Object> matches(String jsonPath) {
+        return find(jsonPath);
+    }
+
+    /**
+     * Brings everything derived from the document up to date after it was modified through this instance.
+     *
+     * @param containers The objects and arrays that were changed in place, or null if unknown
+     */
+    private void changed(@Nullable List<Object> containers) {
+        sync();
+        follow(containers);
+        editsSeen = edits.incrementAndGet();
+    }
+
+    /**
+     * Drops everything derived from the document if it was modified through another instance
+     * sharing the tree, such as one returned by {@link #get}.
+     */
+    void sync() {
+        long seen = edits.get();
+        if (seen == editsSeen) return;
+        editsSeen = seen;
+        follow(null);
+    }
+
+    /**
+     * Updates or marks stale everything derived from the document after a change.
+     *
+     * @param containers The objects and arrays that were changed in place, or null if unknown
+     */
+    private void follow(@Nullable List<Object> containers) {
+        keyIndex = null;
+        hashes = null;
+        if (root instanceof OrderedRows) ((OrderedRows) root).reset();
+        if (containers == null || containers.stream().anyMatch(container -> container == root)) rowPositions = null;
+        boolean indexed = !indexes.isEmpty() && !indexesStale;
+        if (!indexed && views.isEmpty()) return;
+        int[] positions = containers == null ? null : rowPositions(containers);
+        if (indexed && positions == null) indexesStale = true;
+        else if (indexed) {
+            List<?> rows = (List<?>) root;
+            for (RowIndex index : indexes.values()) {
+                for (int position : positions) index.update(position, RowIndex.fieldOf(rows.get(position), index.field));
+            }
+        }
+        for (JsonQView view : new ArrayList<>(views)) {
+            if (positions == null) view.invalidate();
+            else view.updated(positions);
+        }
+    }
+
+    private void rowAdded() {
+        if (!(root instanceof List<?>)) {
+            for (JsonQView view : new ArrayList<>(views)) view.invalidate();
+            return;
+        }
+        List<?> rows = (List<?>) root;
+        Object row = rows.get(rows.size() - 1);
+        if (rowPositions != null) trackRow(row, rows.size() - 1);
+        for (JsonQView view : new ArrayList<>(views)) view.added(row);
+    }
+
+    /**
+     * Finds the positions of changed containers among the rows of the root array.
+     *
+     * @return The positions, or null if a container is not a row or is held at several positions
+     */
+    private int[] rowPositions(List<Object> containers) {
+        if (!(root instanceof List<?>)) return null;
+        if (rowPositions == null) {
+            List<?> rows = (List<?>) root;
+            rowPositions = new IdentityHashMap<>(rows.size() * 2);
+            for (int i = 0, len = rows.size(); i < len; i++) trackRow(rows.get(i), i);
+        }
+        int[] positions = new int[containers.size()];
+        for (int i = 0; i < positions.length; i++) {
+            Integer position = rowPositions.get(containers.get(i));
+            if (position == null || position < 0) return null;
+            positions[i] = position;
+        }
+        return positions;
+    }
+
+    private void trackRow(Object row, int position) {
+        if (row instanceof Map<?, ?> || row instanceof List<?>) {
+            Integer previous = rowPositions.put(row, position);
+            if (previous != null) rowPositions.put(row, -1);
+        }
+    }
+
+    private List<Object> putAll(String jsonPath, boolean override, Object... values) {
         int x = jsonPath.lastIndexOf(".");
         String prop = jsonPath.substring(x < 0 ? 0 : x + 1);
-        Object res = find(jsonPath.substring(0, Math.max(x, 0)));
+        List<Object> res = find(jsonPath.substring(0, Math.max(x, 0)));
         flatForEach(res, (k, v) -> put(override, v, values));
+        return res;
     }
 
         public void putNoNull(String jsonPath, Object value) {
@@ -576,50 +1733,131 @@ public class JsonQ {
     }
 
     private List<Object> find(String jsonPath) {
+        sync();
         List<Object> results = new ArrayList<>();
         if (jsonPath.matches("\\.|")) return Collections.singletonList(root);
         if (isPrimitive(root)) return results;
 
         List<String> paths = pathEvaluator.evaluatePath(jsonPath);
-        results.add(root);
+        if (paths.isEmpty()) return results;
+        List<Object> indexed = selectedRows(paths.get(0));
+        if (indexed != null) results.addAll(indexed);
+        else results.add(root);
 
         List<Object> temp = new ArrayList<>();
-        for (String path : paths) {
+        for (String path : paths.subList(indexed != null ? 1 : 0, paths.size())) {
             temp.clear();
             PathHandler func=getPathHandler(jsonPath,path);
             if(results.isEmpty()||func==null){return Collections.emptyList();}
 
-            collectionForEach(results,(key,obj)-> func.handle(path,obj,temp));
+            if (results.size() >= parallelThreshold)
+                visitInParallel(results, (i, obj, sink) -> obj == null || func.handle(path, obj, sink), temp::add);
+            else collectionForEach(results,(key,obj)-> func.handle(path,obj,temp::add));
             results.clear();
             results.addAll(temp);
         }
-        results.clear();
-        for (Object o : temp) {
+        temp.clear();
+        for (Object o : results) {
             if (o == null) continue;
-            results.add(o);
+            temp.add(o);
         }
-        return results;
+        return temp;
+    }
+
+    /**
+     * Finds the first non-null match of a JSON path, stopping the traversal as soon as it is found.
+     * Segments are evaluated depth first, which yields matches in the same order as {@link #find}.
+     *
+     * @param jsonPath The JSON path to query
+     * @return The first match, or null if there is none
+     */
+    private Object findFirst(String jsonPath) {
+        Mutable<Object> found = new Mutable<>(null);
+        forEachMatch(jsonPath, obj -> {
+            found.value = obj;
+            return false;
+        });
+        return found.value;
+    }
+
+    /**
+     * Streams the non-null matches of a JSON path depth first, without collecting them.
+     *
+     * @param jsonPath The JSON path to query
+     * @param sink     Receives each match, returns false to stop the traversal
+     * @return false if the sink stopped the traversal
+     */
+    private boolean forEachMatch(String jsonPath, Sink sink) {
+        if (jsonPath.matches("\\.|")) return sink.accept(root);
+        if (isPrimitive(root)) return true;
+
+        List<String> paths = pathEvaluator.evaluatePath(jsonPath);
+        if (paths.isEmpty()) return true;
+        List<Object> indexed = selectedRows(paths.get(0));
+        int start = indexed != null ? 1 : 0;
+        PathHandler[] handlers = handlersFor(jsonPath, paths, start);
+        if (handlers == null) return true;
+        if (indexed == null) return descend(paths, handlers, start, root, sink);
+        for (Object row : indexed) {
+            if (!descend(paths, handlers, start, row, sink)) return false;
+        }
+        return true;
+    }
+
+    private PathHandler[] handlersFor(String jsonPath, List<String> paths, int start) {
+        PathHandler[] handlers = new PathHandler[paths.size()];
+        for (int i = start; i < handlers.length; i++) {
+            handlers[i] = getPathHandler(jsonPath, paths.get(i));
+            if (handlers[i] == null) return null;
+        }
+        return handlers;
+    }
+
+    private boolean descend(List<String> paths, PathHandler[] handlers, int depth, Object node, Sink sink) {
+        if (node == null) return true;
+        if (depth == handlers.length) return sink.accept(node);
+        return handlers[depth].handle(paths.get(depth), node,
+                obj -> descend(paths, handlers, depth + 1, obj, sink));
+    }
+
+    /**
+     * Parses a {@code [?(...)]} path segment into simple comparisons.
+     *
+     * @param segment The path segment
+     * @return The comparisons, or null if the segment is not a simple filter
+     */
+    private static List<Comparison> filterComparisons(String segment) {
+        Matcher m = FILTER_SEGMENT.matcher(segment);
+        return m.matches() ? Comparison.parseAll(m.group(1)) : null;
     }
 
     private void collectionForEach(Object input, Taker<Object> consumer) {
-        if (input instanceof Collection<?>) {
-            flatForEach(input, consumer);
-        } else consumer.take("", input);
+        collectionVisit(input, (key, obj) -> {
+            consumer.take(key, obj);
+            return true;
+        });
+    }
+
+    private boolean collectionVisit(Object input, Visitor visitor) {
+        return input instanceof Collection<?> ? visitAll(input, visitor) : visitor.visit("", input);
     }
 
-    private void handleArrayMatch(String path, Object object, List<Object> results) {
+    private boolean handleArrayMatch(String path, Object object, Sink results) {
         Matcher parts = PathType.ARRAY.getPattern().matcher(path);
-        if (!parts.find()) return;
+        if (!parts.find()) return true;
         if (parts.group(3) != null) {
-            collectionForEach(object, (k, v) -> results.add(v));
+            return collectionVisit(object, (k, v) -> results.accept(v));
         } else if (parts.group(1) != null) {
-            filter(parts.group(1), object, results);
+            return filter(parts.group(1), object, results);
         } else if (parts.group(2) != null) {
-            collectionForEach(object, (k, v) -> results.add(v));
-            sliceList(results, parts.group(2));
+            List<Object> slice = new ArrayList<>();
+            collectionForEach(object, (k, v) -> slice.add(v));
+            sliceList(slice, parts.group(2));
+            for (Object o : slice) if (!results.accept(o)) return false;
         } else if (parts.group(4) != null) {
-            results.add(valueAtKey(parts.group(6), object));
+            return results.accept(valueAtKey(parts.group(6), object));
         }
+        return true;
     }
 
     private static <T> void sliceList(List<T> list, @Nullable String sliceNotation) {
@@ -649,36 +1887,81 @@ public class JsonQ {
     }
 
 
-    private List<Object> filter(String expression, Object object,List<Object> results) {
-        collectionForEach(object, (key, obj) -> {
-            obj = getObjectRoot(obj);
-            boolean evaluation = false;
-            if (obj instanceof Map<?, ?>) {
-                Map<?, ?> json = (Map<?, ?>) obj;
-                Matcher m = PathType.JSON_VARIABLE.getPattern().matcher(expression);
-                String exp = expression;
-                while (m.find()) {
-                    String variable = m.group(1);
-                    String val = prepVariableForExpression(json.get(variable));
-                    if (val == null) return;
-                    exp = exp.replace("@." + variable, val);
-                }
-                evaluation = BOOL.evaluate(exp.replaceAll("[]\\[]", ""));
-            } else if (isPrimitive(obj) && !key.isEmpty()) {
-                String val = prepVariableForExpression(obj);
-                if (val == null) return;
-                evaluation = BOOL.evaluate(expression.replace("@." + key, val));
+    private boolean filter(String expression, Object object, Sink results) {
+        if (object instanceof List<?> && ((List<?>) object).size() >= parallelThreshold) {
+            return visitInParallel((List<?>) object,
+                    (i, obj, sink) -> obj == null || filterOne(expression, String.valueOf(i), obj, sink), results);
+        }
+        return collectionVisit(object, (key, obj) -> filterOne(expression, key, obj, results));
+    }
+
+    private boolean filterOne(String expression, String key, Object obj, Sink results) {
+        obj = getObjectRoot(obj);
+        boolean evaluation = false;
+        if (obj instanceof Map<?, ?>) {
+            Map<?, ?> json = (Map<?, ?>) obj;
+            Matcher m = PathType.JSON_VARIABLE.getPattern().matcher(expression);
+            String exp = expression;
+            while (m.find()) {
+                String variable = m.group(1);
+                String val = prepVariableForExpression(json.get(variable));
+                if (val == null) return true;
+                exp = exp.replace("@." + variable, val);
             }
-            if (evaluation) results.add(obj);
-        });
-        return results;
+            evaluation = BOOL.evaluate(exp.replaceAll("[]\\[]", ""));
+        } else if (isPrimitive(obj) && !key.isEmpty()) {
+            String val = prepVariableForExpression(obj);
+            if (val == null) return true;
+            evaluation = BOOL.evaluate(expression.replace("@." + key, val));
+        }
+        return !evaluation || results.accept(obj);
+    }
+
+    /**
+     * Runs a step over the elements of a large list in chunks on the fork-join pool, then hands
+     * what the chunks produced to the sink in list order, so results come out as they would
+     * sequentially. Every chunk runs to completion even if the sink stops early.
+     *
+     * @param list    The elements
+     * @param step    The work for one element, writing its matches to the given sink
+     * @param results Receives the matches of all chunks, in order
+     * @return false if the sink stopped
+     */
+    private static boolean visitInParallel(List<?> list, Step step, Sink results) {
+        int size = list.size();
+        int chunk = Math.max(MIN_PARALLEL_CHUNK, size / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        List<ForkJoinTask<List<Object>>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += chunk) {
+            int start = from, end = Math.min(size, from + chunk);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                List<Object> matches = new ArrayList<>();
+                for (int i = start; i < end; i++) step.visit(i, list.get(i), matches::add);
+                return matches;
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for (ForkJoinTask<List<Object>> task : tasks) {
+            for (Object match : task.join()) if (!results.accept(match)) return false;
+        }
+        return true;
     }
 
     private static Object getObjectRoot(Object object) {
         return object == null ? null
                 : object instanceof Map<?, ?> || object instanceof List<?> ? object
                 : object instanceof JsonQ ? ((JsonQ) object).root
-                : val(gson.toJson(object));
+                : PojoView.view(object);
+    }
+
+    /**
+     * Lets queries step into plain Java objects held by a document, by viewing them as Maps.
+     *
+     * @param node A document node
+     * @return The node itself, or a view of it if it is a POJO
+     */
+    private static Object asNode(Object node) {
+        return node == null || node instanceof Map<?, ?> || node instanceof List<?> || isPrimitive(node)
+                ? node : getObjectRoot(node);
     }
 
     private String prepVariableForExpression(Object val) {
@@ -691,44 +1974,50 @@ public class JsonQ {
                 : String.format("'%s'", v);
     }
 
-    private void handleNormalPath(String path, Object object,List<Object> results) {
-        if (path == null || path.isEmpty()) results.add(object);
+    private boolean handleNormalPath(String path, Object object, Sink results) {
+        if ((path == null || path.isEmpty()) && !results.accept(object)) return false;
         Object current = object;
         for (String p : path.split("\\."))
             current = valueAtKey(p, current);
-        results.add(current == object ? null : current);
+        return results.accept(current == object ? null : current);
     }
 
-    private void globedPath(String path, Object jsonThing,List<Object> results){
-        flatForEach(jsonThing,(k,v)->{
-            if(k.matches(path.replace("*","\\w*"))){
-                results.add(v);
-            }
-        });
+    private boolean globedPath(String path, Object jsonThing, Sink results){
+        Pattern glob = Pattern.compile(path.replace("*","\\w*"));
+        return visitAll(jsonThing, (k, v) -> !glob.matcher(k).matches() || results.accept(v));
     }
 
-    private void findMatchingPath(String path, Object root, List<Object> results) {
-        Deque<Object> stack = new ArrayDeque<>();
-        Set<Object> seen = new HashSet<>();
-        stack.push(root);
-        path = path.replaceAll("^[^\\w*]+", "");
-        while (!stack.isEmpty()) {
-            Object current = stack.pop();
-
-            if(!path.contains("*"))
-                handleNormalPath(path, current,results);
-            else
-                globedPath(path.replace("*","\\w*"),current,results);
+    private boolean findMatchingPath(String path, Object start, Sink results) {
+        String key = path.replaceAll("^[^\\w*]+", "");
+        if (key.contains("*"))
+            return KeyIndex.walk(start, node -> globedPath(key.replace("*","\\w*"), node, results));
 
-            flatForEach(current, (key, obj) -> {
-                if (obj == null || seen.contains(obj)) return;
-                stack.push(obj);
-                seen.add(obj);
-            });
+        String first = key.split("\\.")[0];
+        KeyIndex index = keyIndexFor(start, first);
+        if (index == null) return KeyIndex.walk(start, node -> handleNormalPath(key, node, results));
+        for (Object holder : index.holders(first)) {
+            if (!handleNormalPath(key, holder, results)) return false;
         }
+        return true;
     }
 
-    private Object valueAtKey(String key, Object jsonThing) {
+    /**
+     * Returns the key index for a deep scan, building it on first use.
+     *
+     * @param start The node the scan starts from
+     * @param key   The first key of the scanned path
+     * @return The index, or null if the scan has to walk the tree
+     */
+    private KeyIndex keyIndexFor(Object start, String key) {
+        if (!indexDeepScans || start != root || key.isEmpty() || PathType.INTEGER.getPattern().matcher(key).matches())
+            return null;
+        sync();
+        if (keyIndex == null) keyIndex = KeyIndex.build(root);
+        return keyIndex;
+    }
+
+    private Object valueAtKey(String key, Object node) {
+        Object jsonThing = asNode(node);
         return jsonThing instanceof Map<?, ?> ? ((Map<?, ?>) jsonThing).get(key)
                 : jsonThing instanceof List && PathType.INTEGER.getPattern().matcher(key).matches() ? ((List<?>) jsonThing).get(Integer.parseInt(key))
                 : null;
@@ -737,35 +2026,102 @@ public class JsonQ {
     public void forEach(Taker<JsonQ> taker) {
         flatForEach(root, (k, v) -> {
             if (v != root) {
-                taker.take(k, fromPOJO(v));
+                taker.take(k, sharing(v));
             }
         });
     }
 
     private void flatForEach(Object input, Taker<Object> consumer) {
+        visitAll(input, (key, obj) -> {
+            consumer.take(key, obj);
+            return true;
+        });
+    }
+
+    private static boolean visitAll(Object node, Visitor visitor) {
+        Object input = asNode(node);
         if (input instanceof Map<?, ?>) {
             Map<?, ?> data = (Map<?, ?>) input;
             for (Map.Entry<?, ?> entry : data.entrySet()) {
                 Object prop = entry.getValue();
-                if (prop != null) consumer.take(entry.getKey().toString(), prop);
+                if (prop != null && !visitor.visit(entry.getKey().toString(), prop)) return false;
             }
         } else if (input instanceof List<?>) {
             List<?> data = (List<?>) input;
             for (int i = 0, len = data.size(); i < len; i++) {
                 Object obj = data.get(i);
-                if (obj != null) consumer.take(String.valueOf(i), obj);
+                if (obj != null && !visitor.visit(String.valueOf(i), obj)) return false;
             }
-        } else if (input != null) consumer.take("", input);
+        } else if (input != null) return visitor.visit("", input);
+        return true;
     }
 
-    private interface PathHandler { void handle(String path, Object jsonThing, List<Object> results);}
+    /** Applies one path segment to a node, returns false once the sink asked to stop. */
+    private interface PathHandler { boolean handle(String path, Object jsonThing, Sink results);}
+    /** Receives matches, returns false to stop the traversal. */
+    private interface Sink { boolean accept(Object match);}
+    /** Processes one element of a list split across threads. */
+    private interface Step { boolean visit(int index, Object element, Sink results);}
+    /** Visits children, returns false to stop the iteration. */
+    private interface Visitor { boolean visit(String key, Object value);}
     public interface Taker<T> { void take(String key, T t);}
+    /** The aggregates {@link #groupBy(String, String, Aggregate)} can compute. */
+    public enum Aggregate { COUNT, SUM, AVG, MIN, MAX }
     public interface JFunction<S, T> { T apply(S s);}
 
-    private static final List<SimpleDateFormat> DATE_FORMATS=Arrays. asList(
-            new SimpleDateFormat("yyyy-MM-dd",Locale.ENGLISH ),
-            new SimpleDateFormat("dd-MM-yyyy" ,Locale.ENGLISH)
-    );
+    /** Running aggregates over primitive doubles, optionally keeping the values for percentiles. */
+    private static final class Accumulator implements Sink {
+        private long matches, count;
+        private double sum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        private double[] values;
+
+        private Accumulator(boolean keepValues) {
+            values = keepValues ? new double[16] : null;
+        }
+
+        @Override
+        public boolean accept(Object match) {
+            if (match instanceof Number) add(((Number) match).doubleValue());
+            else matches++;
+            return true;
+        }
+
+        void add(double value) {
+            matches++;
+            if (Double.isNaN(value)) return;
+            if (values != null) {
+                if (count == values.length) values = Arrays.copyOf(values, values.length * 2);
+                values[(int) count] = value;
+            }
+            count++;
+            sum += value;
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+
+        Double result(Aggregate aggregate) {
+            switch (aggregate) {
+                case COUNT: return (double) matches;
+                case SUM: return sum;
+                case AVG: return count == 0 ? Double.NaN : sum / count;
+                case MIN: return count == 0 ? Double.NaN : min;
+                default: return count == 0 ? Double.NaN : max;
+            }
+        }
+
+        double percentile(double percent) {
+            if (count == 0) return Double.NaN;
+            int n = (int) count;
+            Arrays.sort(values, 0, n);
+            double rank = percent / 100 * (n - 1);
+            int low = (int) Math.floor(rank);
+            int high = (int) Math.ceil(rank);
+            return values[low] + (values[high] - values[low]) * (rank - low);
+        }
+    }
+
+    /** Immutable, so safe to share between threads; lenient like the SimpleDateFormats they replace. */
+    private static final DatePattern[] DATE_PATTERNS = DatePattern.all();
 
 
 }
\ No newline at end of file
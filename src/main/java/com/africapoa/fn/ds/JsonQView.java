@@ -0,0 +1,226 @@
+package com.africapoa.fn.ds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a query on a {@link JsonQ} document, kept up to date as the document changes.
+ * <p>
+ * Views are created by {@link JsonQ#view(String)}. When the query selects rows of the root
+ * array, such as {@code $[?(@.status == 'open')].amount} or {@code $[*].total}, the view keeps
+ * the matches of each row along with their count, sum, minimum and maximum. {@link JsonQ#add}
+ * then evaluates the query on the new row only, and a {@link JsonQ#put} on rows re-evaluates just
+ * those rows, so the aggregates are read in O(1) however large the document. Other changes,
+ * including those made through a JsonQ obtained from the document such as by {@link JsonQ#get},
+ * and views whose query does not start with a row selector, are recomputed in full the next time
+ * the view is read.
+ * </p>
+ * <p>
+ * Like the document, a view is not thread safe. Call {@link #close()} once it is no longer needed
+ * so that the document stops maintaining it.
+ * </p>
+ */
+public final class JsonQView implements AutoCloseable {
+    private final JsonQ document;
+    private final String query;
+    private final boolean rowWise;
+    private final List<Object> scratchRow = new ArrayList<>(Collections.singletonList(null));
+    private final JsonQ scratch = JsonQ.fromPOJO(scratchRow);
+    private final List<List<Object>> rows = new ArrayList<>();
+    private List<Object> matches;
+    private boolean stale = true;
+    private boolean extremesStale;
+    private JsonQ result;
+    private long count, numeric;
+    private double sum, min, max;
+
+    JsonQView(JsonQ document, String query, boolean rowWise) {
+        this.document = document;
+        this.query = query;
+        this.rowWise = rowWise;
+    }
+
+    /**
+     * Returns the current results of the query, as {@link JsonQ#get(String)} would.
+     *
+     * @return The matches; rebuilt only if the document changed since the last call
+     */
+    public JsonQ get() {
+        refresh();
+        if (result == null) {
+            List<Object> all = new ArrayList<>();
+            if (rowWise) for (List<Object> row : rows) all.addAll(row);
+            else all.addAll(matches);
+            all.removeIf(match -> match == null);
+            result = document.sharing(all.size() == 1 ? all.get(0) : all);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the matches, of any type.
+     *
+     * @return The number of non-null matches
+     */
+    public long count() {
+        refresh();
+        return count;
+    }
+
+    /**
+     * Sums the numeric matches.
+     *
+     * @return The sum, 0 if nothing numeric matches
+     */
+    public double sum() {
+        refresh();
+        return sum;
+    }
+
+    /**
+     * Averages the numeric matches.
+     *
+     * @return The mean, NaN if nothing numeric matches
+     */
+    public double avg() {
+        refresh();
+        return numeric == 0 ? Double.NaN : sum / numeric;
+    }
+
+    /**
+     * Finds the smallest numeric match.
+     *
+     * @return The minimum, NaN if nothing numeric matches
+     */
+    public double min() {
+        refreshExtremes();
+        return numeric == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * Finds the largest numeric match.
+     *
+     * @return The maximum, NaN if nothing numeric matches
+     */
+    public double max() {
+        refreshExtremes();
+        return numeric == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Stops maintaining this view. Its results are no longer updated.
+     */
+    @Override
+    public void close() {
+        document.unview(this);
+    }
+
+    /** A row was appended to the root array. */
+    void added(Object row) {
+        if (stale) return;
+        if (!rowWise || rows.size() != ((List<?>) document.val()).size() - 1) {
+            invalidate();
+            return;
+        }
+        List<Object> found = evaluate(row);
+        rows.add(found);
+        for (Object match : found) include(match);
+        result = null;
+    }
+
+    /** Rows of the root array were changed in place, but none was added, removed or moved. */
+    void updated(int[] positions) {
+        if (stale) return;
+        if (!rowWise) {
+            invalidate();
+            return;
+        }
+        List<?> all = (List<?>) document.val();
+        for (int position : positions) {
+            for (Object match : rows.get(position)) exclude(match);
+            List<Object> found = evaluate(all.get(position));
+            rows.set(position, found);
+            for (Object match : found) include(match);
+        }
+        result = null;
+    }
+
+    /** The document changed in a way the view cannot follow row by row. */
+    void invalidate() {
+        stale = true;
+        result = null;
+    }
+
+    private void refresh() {
+        document.sync();
+        if (!stale) return;
+        rows.clear();
+        matches = null;
+        count = numeric = 0;
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        extremesStale = false;
+        if (rowWise) {
+            for (Object row : (List<?>) document.val()) {
+                List<Object> found = evaluate(row);
+                rows.add(found);
+                for (Object match : found) include(match);
+            }
+        } else {
+            matches = document.matches(query);
+            for (Object match : matches) include(match);
+        }
+        stale = false;
+    }
+
+    private void refreshExtremes() {
+        refresh();
+        if (!extremesStale) return;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        for (List<Object> row : rows) {
+            for (Object match : row) {
+                double value = numericValue(match);
+                if (value < min) min = value;
+                if (value > max) max = value;
+            }
+        }
+        extremesStale = false;
+    }
+
+    /** Runs the query on a single row, as if it were the only element of the root array. */
+    private List<Object> evaluate(Object row) {
+        scratchRow.set(0, row);
+        List<Object> found = scratch.matches(query);
+        scratchRow.set(0, null);
+        found.removeIf(match -> match == null);
+        return found.isEmpty() ? Collections.emptyList() : found;
+    }
+
+    private void include(Object match) {
+        if (match == null) return;
+        count++;
+        double value = numericValue(match);
+        if (Double.isNaN(value)) return;
+        numeric++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    private void exclude(Object match) {
+        if (match == null) return;
+        count--;
+        double value = numericValue(match);
+        if (Double.isNaN(value)) return;
+        numeric--;
+        sum = numeric == 0 ? 0 : sum - value;
+        if (value <= min || value >= max) extremesStale = true;
+    }
+
+    private static double numericValue(Object match) {
+        return match instanceof Number ? ((Number) match).doubleValue() : Double.NaN;
+    }
+}
@@ -0,0 +1,86 @@
+package com.africapoa.fn.ds;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from key names to the objects holding them, used to answer {@code ..key} scans.
+ * <p>
+ * The objects of each key are kept in the order a deep scan visits them, so walking the index
+ * gives the same results, in the same order, as walking the tree.
+ * </p>
+ */
+final class KeyIndex {
+    private final Map<String, List<Object>> holders = new HashMap<>();
+
+    private KeyIndex() {}
+
+    /**
+     * Indexes every object reachable from a node.
+     *
+     * @param start the node to index
+     * @return the index
+     */
+    static KeyIndex build(Object start) {
+        KeyIndex index = new KeyIndex();
+        walk(start, node -> {
+            if (node instanceof Map<?, ?>) {
+                for (Object key : ((Map<?, ?>) node).keySet())
+                    index.holders.computeIfAbsent(String.valueOf(key), k -> new ArrayList<>()).add(node);
+            }
+            return true;
+        });
+        return index;
+    }
+
+    /**
+     * Returns the objects holding a key, in deep scan order.
+     *
+     * @param key the key
+     * @return the objects, empty if none holds the key
+     */
+    List<Object> holders(String key) {
+        return holders.getOrDefault(key, Collections.emptyList());
+    }
+
+    /**
+     * Visits a node and everything below it, depth first. Shared containers are visited once,
+     * tracked by identity so that no subtree is ever hashed.
+     *
+     * @param start   the node to start from
+     * @param visitor receives each node, returns false to stop the walk
+     * @return false if the visitor stopped the walk
+     */
+    static boolean walk(Object start, Step visitor) {
+        Deque<Object> stack = new ArrayDeque<>();
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Object current = stack.pop();
+            if (!visitor.visit(current)) return false;
+            if (current instanceof Map<?, ?>) {
+                for (Object child : ((Map<?, ?>) current).values()) push(child, stack, seen);
+            } else if (current instanceof List<?>) {
+                List<?> list = (List<?>) current;
+                for (int i = 0, len = list.size(); i < len; i++) push(list.get(i), stack, seen);
+            }
+        }
+        return true;
+    }
+
+    private static void push(Object child, Deque<Object> stack, Set<Object> seen) {
+        if (child == null) return;
+        boolean container = child instanceof Map<?, ?> || child instanceof List<?>;
+        if (!container || seen.add(child)) stack.push(child);
+    }
+
+    /** Receives one node of a walk. */
+    interface Step { boolean visit(Object node); }
+}
@@ -0,0 +1,149 @@
+package com.africapoa.fn.ds;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+
+/**
+ * The rows of a JSON array in sort order, sorted lazily so that a following limit can keep just
+ * the top rows.
+ * <p>
+ * Rows compare on the expression operands of their fields (see {@link Comparison#operandOf}),
+ * the same keys a sorted {@link RowIndex} uses: numbers numerically before strings, strings
+ * lexicographically. Rows missing a field come last in either direction, and ties keep their
+ * original order. Sort keys are read once per row, never during comparisons.
+ * </p>
+ */
+final class OrderedRows extends AbstractList<Object> implements RandomAccess {
+    private final List<?> rows;
+    private final String[] fields;
+    private final boolean[] ascending;
+    private int[] order;
+    private Object[][] keys;
+
+    private OrderedRows(List<?> rows, String[] fields, boolean[] ascending, int[] order) {
+        this.rows = rows;
+        this.fields = fields;
+        this.ascending = ascending;
+        this.order = order;
+    }
+
+    /**
+     * Orders rows by one or more fields.
+     *
+     * @param rows      the rows
+     * @param fields    the sort fields, most significant first
+     * @param ascending the direction of each field
+     * @return the ordered rows; nothing is sorted until they are read or limited
+     */
+    static OrderedRows by(List<?> rows, String[] fields, boolean[] ascending) {
+        return new OrderedRows(rows, fields, ascending, null);
+    }
+
+    /**
+     * Orders rows through a sorted index on their only sort field.
+     *
+     * @param rows      the rows the index was built on
+     * @param index     a sorted index of the sort field
+     * @param ascending the direction
+     * @return the ordered rows, or null if the index cannot give an order
+     */
+    static OrderedRows byIndex(List<?> rows, RowIndex index, boolean ascending) {
+        int[] indexed = index.ordered(ascending);
+        if (indexed == null) return null;
+        int[] order = Arrays.copyOf(indexed, rows.size());
+        boolean[] seen = new boolean[rows.size()];
+        for (int row : indexed) seen[row] = true;
+        int at = indexed.length;
+        for (int row = 0; row < seen.length; row++) if (!seen[row]) order[at++] = row;
+        return new OrderedRows(rows, new String[]{index.field}, new boolean[]{ascending}, order);
+    }
+
+    /**
+     * Takes the first rows in sort order. Unless the rows are already sorted, this keeps a
+     * bounded heap of the best rows instead of sorting them all.
+     *
+     * @param limit the number of rows to keep
+     * @return the first {@code limit} rows, in order
+     */
+    List<Object> limit(int limit) {
+        int n = Math.min(Math.max(limit, 0), rows.size());
+        List<Object> top = new ArrayList<>(n);
+        if (sorted() || n == rows.size()) {
+            for (int i = 0; i < n; i++) top.add(get(i));
+            return top;
+        }
+        readKeys();
+        PriorityQueue<Integer> heap = new PriorityQueue<>(n + 1, (a, b) -> compare(b, a));
+        for (int row = 0, len = rows.size(); row < len && n > 0; row++) {
+            if (heap.size() < n) heap.add(row);
+            else if (compare(row, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(row);
+            }
+        }
+        Integer[] best = heap.toArray(new Integer[0]);
+        Arrays.sort(best, this::compare);
+        for (Integer row : best) top.add(rows.get(row));
+        return top;
+    }
+
+    @Override
+    public Object get(int index) {
+        return rows.get(order()[index]);
+    }
+
+    @Override
+    public int size() { return rows.size(); }
+
+    /** Forgets the sort order and keys, after the rows or their fields changed. */
+    void reset() {
+        order = null;
+        keys = null;
+    }
+
+    /** Whether the cached order covers every row; rows appended since are not in it. */
+    private boolean sorted() {
+        return order != null && order.length == rows.size();
+    }
+
+    private int[] order() {
+        if (!sorted()) {
+            readKeys();
+            Integer[] sorted = new Integer[rows.size()];
+            for (int i = 0; i < sorted.length; i++) sorted[i] = i;
+            Arrays.sort(sorted, this::compare);
+            int[] positions = new int[sorted.length];
+            for (int i = 0; i < positions.length; i++) positions[i] = sorted[i];
+            order = positions;
+            keys = null;
+        }
+        return order;
+    }
+
+    private void readKeys() {
+        if (keys != null && keys.length > 0 && keys[0].length == rows.size()) return;
+        keys = new Object[fields.length][rows.size()];
+        for (int row = 0, len = rows.size(); row < len; row++) {
+            Object record = rows.get(row);
+            for (int k = 0; k < fields.length; k++)
+                keys[k][row] = Comparison.operandOf(RowIndex.fieldOf(record, fields[k]));
+        }
+    }
+
+    private int compare(int a, int b) {
+        for (int k = 0; k < fields.length; k++) {
+            Object x = keys[k][a], y = keys[k][b];
+            if (x == null || y == null) {
+                if (x != y) return x == null ? 1 : -1;
+                continue;
+            }
+            int c = RowIndex.compareKeys(x, y);
+            if (c != 0) return ascending[k] ? c : -c;
+        }
+        return Integer.compare(a, b);
+    }
+}
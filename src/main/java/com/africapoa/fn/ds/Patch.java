@@ -0,0 +1,345 @@
+package com.africapoa.fn.ds;
+
+import com.africapoa.fn.utils.JsonUtil;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.africapoa.fn.utils.Log.log;
+
+/**
+ * A batch of changes to a document, in the spirit of RFC 6902 (JSON Patch): add, replace,
+ * remove and move.
+ * <p>
+ * Paths are JSON Pointers such as {@code /store/book/0/title}, with {@code -} for the end of an
+ * array, or concrete JsonQ paths such as {@code $.store.book[0].title}. Operations apply in
+ * order. The containers they touch are resolved through a shared cache of parent nodes, so a
+ * patch walks each parent path once however many operations target it.
+ * </p>
+ * <p>
+ * By default a failing operation is logged and skipped. An {@link #atomic()} patch instead stops
+ * at the first failure and undoes everything it had applied.
+ * </p>
+ *
+ * @see JsonQ#apply(Patch)
+ */
+public final class Patch {
+    private final List<Operation> operations = new ArrayList<>();
+    private boolean atomic;
+
+    private Patch() {}
+
+    /**
+     * Starts an empty patch.
+     *
+     * @return the patch
+     */
+    public static Patch create() {
+        return new Patch();
+    }
+
+    /**
+     * Reads a JSON Patch document: an array of {@code {"op", "path", "from", "value"}} objects.
+     *
+     * @param json the patch document
+     * @return the patch
+     * @throws IllegalArgumentException if an operation is not add, replace, remove or move
+     */
+    public static Patch fromJson(String json) {
+        List<Map<String, Object>> ops = JsonUtil.getGson().fromJson(json, new TypeToken<List<Map<String, Object>>>() {}.getType());
+        Patch patch = create();
+        for (Map<String, Object> op : ops) {
+            String path = String.valueOf(op.get("path"));
+            switch (String.valueOf(op.get("op"))) {
+                case "add": patch.add(path, op.get("value")); break;
+                case "replace": patch.replace(path, op.get("value")); break;
+                case "remove": patch.remove(path); break;
+                case "move": patch.move(String.valueOf(op.get("from")), path); break;
+                default: throw new IllegalArgumentException("Unsupported patch operation " + op.get("op"));
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * Sets a key of an object, or inserts into an array at a position.
+     *
+     * @param path  where to add
+     * @param value the value to add
+     * @return this patch
+     */
+    public Patch add(String path, Object value) {
+        return operation(Kind.ADD, null, path, value);
+    }
+
+    /**
+     * Replaces an existing value.
+     *
+     * @param path  the value to replace
+     * @param value the new value
+     * @return this patch
+     */
+    public Patch replace(String path, Object value) {
+        return operation(Kind.REPLACE, null, path, value);
+    }
+
+    /**
+     * Removes an existing value.
+     *
+     * @param path the value to remove
+     * @return this patch
+     */
+    public Patch remove(String path) {
+        return operation(Kind.REMOVE, null, path, null);
+    }
+
+    /**
+     * Removes a value and adds it at another path.
+     *
+     * @param from the value to move
+     * @param path where to add it
+     * @return this patch
+     */
+    public Patch move(String from, String path) {
+        return operation(Kind.MOVE, from, path, null);
+    }
+
+    /**
+     * Makes the patch all-or-nothing: if any operation fails, the ones already applied are undone.
+     *
+     * @return this patch
+     */
+    public Patch atomic() {
+        atomic = true;
+        return this;
+    }
+
+    /**
+     * Returns the number of operations in the patch.
+     *
+     * @return the number of operations
+     */
+    public int size() { return operations.size(); }
+
+    private Patch operation(Kind kind, String from, String path, Object value) {
+        operations.add(new Operation(kind, from, from == null ? null : keysOf(from), path, keysOf(path),
+                value instanceof JsonQ ? ((JsonQ) value).val() : value));
+        return this;
+    }
+
+    /**
+     * Writes the patch as a JSON Patch document, the format {@link #fromJson(String)} reads.
+     *
+     * @return the patch document
+     */
+    @Override
+    public String toString() {
+        List<Map<String, Object>> ops = new ArrayList<>();
+        for (Operation op : operations) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("op", op.kind.name().toLowerCase());
+            if (op.fromPath != null) json.put("from", op.fromPath);
+            json.put("path", op.path);
+            if (op.kind == Kind.ADD || op.kind == Kind.REPLACE) json.put("value", op.value);
+            ops.add(json);
+        }
+        return JsonUtil.getGson().toJson(ops);
+    }
+
+    /**
+     * Applies the patch to a document tree in place.
+     *
+     * @param root the root of the document
+     * @return true if every operation applied; an atomic patch leaves the tree unchanged otherwise
+     */
+    boolean applyTo(Object root) {
+        Parent parents = new Parent(root);
+        Deque<Runnable> undo = atomic ? new ArrayDeque<>() : null;
+        boolean applied = true;
+        for (Operation op : operations) {
+            try {
+                op.apply(parents, undo);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | UnsupportedOperationException e) {
+                log("Unable to %s %s: %s", op.kind.name().toLowerCase(), op.path, e.getMessage());
+                applied = false;
+                if (atomic) {
+                    while (!undo.isEmpty()) undo.pop().run();
+                    return false;
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Splits a JSON Pointer or a concrete JsonQ path into its keys.
+     */
+    private static List<Object> keysOf(String path) {
+        if (!path.startsWith("/")) return PersistentJson.keysOf(path);
+        List<Object> keys = new ArrayList<>();
+        for (String token : path.substring(1).split("/", -1))
+            keys.add(token.replace("~1", "/").replace("~0", "~"));
+        return keys;
+    }
+
+    private enum Kind { ADD, REPLACE, REMOVE, MOVE }
+
+    /** One operation, with its paths split into keys up front. */
+    private static final class Operation {
+        private final Kind kind;
+        private final String fromPath;
+        private final List<Object> from;
+        private final String path;
+        private final List<Object> keys;
+        private final Object value;
+
+        private Operation(Kind kind, String fromPath, List<Object> from, String path, List<Object> keys, Object value) {
+            this.kind = kind;
+            this.fromPath = fromPath;
+            this.from = from;
+            this.path = path;
+            this.keys = keys;
+            this.value = value;
+        }
+
+        void apply(Parent parents, Deque<Runnable> undo) {
+            switch (kind) {
+                case ADD: parents.of(keys).add(last(keys), value, undo); break;
+                case REPLACE: parents.of(keys).replace(last(keys), value, undo); break;
+                case REMOVE: parents.of(keys).remove(last(keys), undo); break;
+                case MOVE:
+                    if (keys.size() > from.size() && keys.subList(0, from.size()).equals(from))
+                        throw new IllegalArgumentException("cannot move a value into itself");
+                    Deque<Runnable> steps = new ArrayDeque<>();
+                    Object moved = parents.of(from).remove(last(from), steps);
+                    try {
+                        parents.of(keys).add(last(keys), moved, steps);
+                    } catch (RuntimeException e) {
+                        while (!steps.isEmpty()) steps.pop().run();
+                        throw e;
+                    }
+                    if (undo != null) steps.descendingIterator().forEachRemaining(undo::push);
+                    break;
+            }
+        }
+
+        private static Object last(List<Object> keys) {
+            if (keys.isEmpty()) throw new IllegalArgumentException("the document root cannot be patched in place");
+            return keys.get(keys.size() - 1);
+        }
+    }
+
+    /**
+     * A resolved container, caching the containers below it that operations have reached so far.
+     * A change to a key drops the cached containers under that key, a change that shifts array
+     * positions drops all of them.
+     */
+    private static final class Parent {
+        private final Object node;
+        private final Map<Object, Parent> children = new HashMap<>();
+
+        private Parent(Object node) { this.node = node; }
+
+        Parent of(List<Object> keys) {
+            if (!(node instanceof Map<?, ?> || node instanceof List<?>))
+                throw new IllegalArgumentException("no object or array at the document root");
+            Parent parent = this;
+            for (int i = 0, len = keys.size() - 1; i < len; i++) parent = parent.child(keys.get(i));
+            return parent;
+        }
+
+        private Parent child(Object key) {
+            Object normalized = normalize(key, false);
+            Parent child = children.get(normalized);
+            if (child != null) return child;
+            Object value = node instanceof List<?> ? list().get((Integer) normalized) : map().get(normalized);
+            if (!(value instanceof Map<?, ?> || value instanceof List<?>))
+                throw new IllegalArgumentException("no object or array at " + key);
+            child = new Parent(value);
+            children.put(normalized, child);
+            return child;
+        }
+
+        void add(Object key, Object value, Deque<Runnable> undo) {
+            Object k = normalize(key, true);
+            if (node instanceof List<?>) {
+                List<Object> list = list();
+                int at = (Integer) k;
+                list.add(at, value);
+                children.clear();
+                if (undo != null) undo.push(() -> list.remove(at));
+            } else {
+                Map<String, Object> map = map();
+                boolean existed = map.containsKey(k);
+                Object old = map.put((String) k, value);
+                children.remove(k);
+                if (undo != null) undo.push(() -> { if (existed) map.put((String) k, old); else map.remove(k); });
+            }
+        }
+
+        void replace(Object key, Object value, Deque<Runnable> undo) {
+            Object k = normalize(key, false);
+            if (node instanceof List<?>) {
+                List<Object> list = list();
+                int at = (Integer) k;
+                Object old = list.set(at, value);
+                children.remove(k);
+                if (undo != null) undo.push(() -> list.set(at, old));
+            } else {
+                Map<String, Object> map = map();
+                if (!map.containsKey(k)) throw new IllegalArgumentException("no value at " + key);
+                Object old = map.put((String) k, value);
+                children.remove(k);
+                if (undo != null) undo.push(() -> map.put((String) k, old));
+            }
+        }
+
+        Object remove(Object key, Deque<Runnable> undo) {
+            Object k = normalize(key, false);
+            if (node instanceof List<?>) {
+                List<Object> list = list();
+                int at = (Integer) k;
+                Object old = list.remove(at);
+                children.clear();
+                if (undo != null) undo.push(() -> list.add(at, old));
+                return old;
+            }
+            Map<String, Object> map = map();
+            if (!map.containsKey(k)) throw new IllegalArgumentException("no value at " + key);
+            Map<String, Object> before = undo != null ? new LinkedHashMap<>(map) : null;
+            Object old = map.remove(k);
+            children.remove(k);
+            if (undo != null) undo.push(() -> { map.clear(); map.putAll(before); });
+            return old;
+        }
+
+        /**
+         * Turns a key into a String for objects, or an array position for arrays. A position
+         * one past the end, or {@code -}, is only allowed when adding.
+         */
+        private Object normalize(Object key, boolean adding) {
+            if (!(node instanceof List<?>)) return String.valueOf(key);
+            int size = list().size();
+            int at;
+            if (key instanceof Integer) at = (Integer) key;
+            else if ("-".equals(key)) at = size;
+            else if (PathType.INTEGER.getPattern().matcher(String.valueOf(key)).matches()) at = Integer.parseInt((String) key);
+            else throw new IllegalArgumentException("not an array position: " + key);
+            if (at > size || (at == size && !adding))
+                throw new IndexOutOfBoundsException("position " + at + " of an array of " + size);
+            return at;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Object> list() { return (List<Object>) node; }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> map() { return (Map<String, Object>) node; }
+    }
+}
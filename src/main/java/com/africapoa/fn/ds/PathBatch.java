@@ -0,0 +1,80 @@
+package com.africapoa.fn.ds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of JSON paths compiled into a prefix trie, so that {@link JsonQ#getAll(PathBatch)} can
+ * answer all of them in a single walk of a document. Paths sharing leading segments share the
+ * work for those segments.
+ * <p>
+ * A batch is immutable and can be reused across documents and threads.
+ * </p>
+ */
+public final class PathBatch {
+    final Node root = new Node("");
+    final List<String> paths;
+
+    private PathBatch(String... paths) {
+        this.paths = Collections.unmodifiableList(new ArrayList<>(List.of(paths)));
+        PathEvaluator evaluator = PathEvaluator.getInstance();
+        for (String path : paths) {
+            if (path.matches("\\.|")) {
+                root.ends.add(path);
+                continue;
+            }
+            Node node = root;
+            List<String> segments = keySegments(evaluator, evaluator.evaluatePath(path));
+            if (segments.isEmpty()) continue;
+            for (String segment : segments) {
+                node = node.children.computeIfAbsent(segment, Node::new);
+                node.source = node.source == null ? path : node.source;
+            }
+            node.ends.add(path);
+        }
+    }
+
+    /**
+     * Splits dotted key runs such as {@code a.b.c}, which the path evaluator returns as one
+     * segment, into one segment per key, so that {@code a.b.x} and {@code a.b.y} share the
+     * {@code a} and {@code b} nodes.
+     */
+    private static List<String> keySegments(PathEvaluator evaluator, List<String> segments) {
+        List<String> keys = new ArrayList<>(segments.size());
+        for (String segment : segments) {
+            if (evaluator.getMatching(segment) == PathType.REGULAR_PATH) keys.addAll(List.of(segment.split("\\.")));
+            else keys.add(segment);
+        }
+        return keys;
+    }
+
+    /**
+     * Compiles the given paths into a batch.
+     *
+     * @param paths the JSON paths to answer together
+     * @return the compiled batch
+     */
+    public static PathBatch of(String... paths) {
+        return new PathBatch(paths);
+    }
+
+    /**
+     * Returns the paths of this batch, in the order they were given.
+     *
+     * @return the paths
+     */
+    public List<String> paths() { return paths; }
+
+    /** One path segment, shared by every path of the batch that starts with the same segments. */
+    static final class Node {
+        final String segment;
+        final Map<String, Node> children = new LinkedHashMap<>();
+        final List<String> ends = new ArrayList<>(1);
+        String source;
+
+        Node(String segment) { this.segment = segment; }
+    }
+}
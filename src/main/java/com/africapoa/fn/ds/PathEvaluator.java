@@ -25,12 +25,13 @@ final class PathEvaluator {
     /**
      * Evaluates the given JSON path and returns a list of its components.
      *
-     * @param jsonPath the JSON path to evaluate (e.g., "$.store.book[0].title")
+     * @param jsonPath the JSON path to evaluate (e.g., "$.store.book[0].title"), a leading
+     *                 "$.." is kept as a deep scan from the root
      * @return a list of path components (e.g., ["store", "book[0]", "title"])
      */
     public List<String> evaluatePath(String jsonPath) {
         List<String> paths = new ArrayList<>();
-        Matcher parts = PathType.PATH_POSSIBILITIES.getPattern().matcher(jsonPath.replaceAll("^[$.]+", ""));
+        Matcher parts = PathType.PATH_POSSIBILITIES.getPattern().matcher(jsonPath.replaceAll("^\\$?(\\.(?!\\.))?", ""));
         while (parts.find()) {
             for (int i = 1, len = parts.groupCount(); i <= len; i++) {
                 String x = parts.group(i);
@@ -0,0 +1,149 @@
+package com.africapoa.fn.ds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds and updates persistent document trees made of {@link PersistentMap} and
+ * {@link PersistentVector} nodes.
+ * <p>
+ * Updates copy the nodes on the path to the change and share everything else with the original
+ * tree, which itself is left untouched.
+ * </p>
+ */
+final class PersistentJson {
+    private static final Pattern INDEX = Pattern.compile("\\[(\\d+)]");
+    private static final Pattern QUOTED_KEY = Pattern.compile("\\[([`\"'])(.+?)\\1]");
+    private static final Pattern KEY = Pattern.compile("\\w+|\"([^\"]+)\"");
+
+    private PersistentJson() {}
+
+    /**
+     * Copies a tree into the persistent model. Persistent subtrees and leaves are shared.
+     *
+     * @param node the node to copy
+     * @return the persistent copy, or the node itself if it is a leaf
+     */
+    static Object copyOf(Object node) {
+        if (isPersistent(node)) return node;
+        if (node instanceof Map<?, ?>) {
+            PersistentMap map = PersistentMap.EMPTY;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) node).entrySet())
+                map = map.plus(String.valueOf(e.getKey()), copyOf(e.getValue()));
+            return map;
+        }
+        if (node instanceof List<?>) {
+            PersistentVector list = PersistentVector.EMPTY;
+            for (Object element : (List<?>) node) list = list.plus(copyOf(element));
+            return list;
+        }
+        return node instanceof Number || node instanceof String || node instanceof Boolean ? node
+                : copyOf(PojoView.view(node));
+    }
+
+    /**
+     * Tells whether a node can be shared without copying.
+     *
+     * @param node the node
+     * @return true for persistent containers, leaves and null
+     */
+    static boolean isPersistent(Object node) {
+        return !(node instanceof Map<?, ?> || node instanceof List<?>)
+                ? node == null || node instanceof Number || node instanceof String || node instanceof Boolean
+                : node instanceof PersistentMap || node instanceof PersistentVector;
+    }
+
+    /**
+     * Splits a concrete path, one without wildcards or filters, into its keys.
+     *
+     * @param path a path such as {@code $.store.book[0].title}
+     * @return the keys: Strings for object keys, Integers for array positions
+     * @throws IllegalArgumentException if the path does not name exactly one location
+     */
+    static List<Object> keysOf(String path) {
+        List<Object> keys = new ArrayList<>();
+        if (path.matches("\\$?\\.?")) return keys;
+        for (String segment : PathEvaluator.getInstance().evaluatePath(path)) {
+            Matcher m;
+            if ((m = INDEX.matcher(segment)).matches()) {
+                keys.add(Integer.parseInt(m.group(1)));
+            } else if ((m = QUOTED_KEY.matcher(segment)).matches()) {
+                keys.add(m.group(2));
+            } else if (PathType.REGULAR_PATH.getPattern().matcher(segment).matches()) {
+                for (m = KEY.matcher(segment); m.find(); ) keys.add(m.group(1) != null ? m.group(1) : m.group());
+            } else {
+                throw new IllegalArgumentException("Not a concrete path: " + path + ", at " + segment);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Sets the value at a location, creating the missing objects and arrays on the way.
+     *
+     * @param node  the root of the tree
+     * @param keys  the location, as returned by {@link #keysOf(String)}
+     * @param depth the key to start from
+     * @param value the persistent value to set
+     * @return the new root
+     * @throws IllegalArgumentException if an array position is past the end of its array
+     */
+    static Object assoc(Object node, List<Object> keys, int depth, Object value) {
+        if (depth == keys.size()) return value;
+        Object key = keys.get(depth);
+        Integer position = positionOf(key, node);
+        if (position != null) {
+            PersistentVector list = node instanceof PersistentVector ? (PersistentVector) node : PersistentVector.EMPTY;
+            if (position > list.size())
+                throw new IllegalArgumentException("Position " + position + " is past the end of an array of " + list.size());
+            Object child = position < list.size() ? list.get(position) : null;
+            Object updated = assoc(child, keys, depth + 1, value);
+            return position == list.size() ? list.plus(updated) : list.with(position, updated);
+        }
+        PersistentMap map = node instanceof PersistentMap ? (PersistentMap) node : PersistentMap.EMPTY;
+        return map.plus(String.valueOf(key), assoc(map.get(key), keys, depth + 1, value));
+    }
+
+    /**
+     * Removes the value at a location.
+     *
+     * @param node  the root of the tree
+     * @param keys  the location, as returned by {@link #keysOf(String)}
+     * @param depth the key to start from
+     * @return the new root, or the node itself if nothing is at that location
+     */
+    static Object dissoc(Object node, List<Object> keys, int depth) {
+        Object key = keys.get(depth);
+        boolean last = depth == keys.size() - 1;
+        Integer position = positionOf(key, node);
+        if (node instanceof PersistentVector && position != null) {
+            PersistentVector list = (PersistentVector) node;
+            if (position >= list.size()) return node;
+            if (last) return list.without(position);
+            Object child = list.get(position);
+            Object updated = dissoc(child, keys, depth + 1);
+            return updated == child ? node : list.with(position, updated);
+        }
+        if (node instanceof PersistentMap && ((PersistentMap) node).containsKey(key)) {
+            PersistentMap map = (PersistentMap) node;
+            if (last) return map.minus((String) key);
+            Object child = map.get(key);
+            Object updated = dissoc(child, keys, depth + 1);
+            return updated == child ? node : map.plus((String) key, updated);
+        }
+        return node;
+    }
+
+    /**
+     * Reads a key as an array position: Integers always are, digit-only names are when the
+     * node is an array, matching how queries read them.
+     */
+    private static Integer positionOf(Object key, Object node) {
+        if (key instanceof Integer) return (Integer) key;
+        return node instanceof List<?> && PathType.INTEGER.getPattern().matcher((String) key).matches()
+                ? Integer.valueOf((String) key) : null;
+    }
+}
@@ -0,0 +1,226 @@
+package com.africapoa.fn.ds;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable JSON object stored as a hash array mapped trie.
+ * <p>
+ * Each trie level consumes five bits of the key hash and stores only its occupied slots, so
+ * lookups and updates are O(log32 n) and an update copies only the nodes on the path to the
+ * changed key. Keys keep their insertion order through a {@link PersistentVector} of keys, in
+ * which removed keys leave a gap until the vector is compacted. The map is a read-only
+ * {@code Map}, the {@code Map} mutators throw {@link UnsupportedOperationException}.
+ * </p>
+ */
+final class PersistentMap extends AbstractMap<String, Object> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    static final PersistentMap EMPTY = new PersistentMap(new Node(0, new Object[0]), 0, PersistentVector.EMPTY);
+
+    private final Node root;
+    private final int size;
+    private final PersistentVector order;
+
+    private PersistentMap(Node root, int size, PersistentVector order) {
+        this.root = root;
+        this.size = size;
+        this.order = order;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Leaf leaf = key instanceof String ? find((String) key) : null;
+        return leaf == null ? null : leaf.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && find((String) key) != null;
+    }
+
+    @Override
+    public int size() { return size; }
+
+    /**
+     * Sets a key. A new key goes after the existing ones, an existing key keeps its position.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return a map with the key set
+     */
+    PersistentMap plus(String key, Object value) {
+        int hash = hash(key);
+        Leaf existing = find(key);
+        if (existing != null) {
+            if (existing.value == value) return this;
+            return new PersistentMap(put(root, 0, new Leaf(key, hash, value, existing.position, null)), size, order);
+        }
+        Leaf leaf = new Leaf(key, hash, value, order.size(), null);
+        return new PersistentMap(put(root, 0, leaf), size + 1, order.plus(key));
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key the key
+     * @return a map without the key
+     */
+    PersistentMap minus(String key) {
+        Leaf existing = find(key);
+        if (existing == null) return this;
+        Node newRoot = remove(root, 0, existing.hash, key);
+        PersistentMap result = new PersistentMap(newRoot == null ? EMPTY.root : newRoot, size - 1,
+                order.with(existing.position, null));
+        return result.order.size() > 32 && result.size < result.order.size() / 2 ? result.compacted() : result;
+    }
+
+    private PersistentMap compacted() {
+        PersistentMap result = EMPTY;
+        for (Entry<String, Object> e : entrySet()) result = result.plus(e.getKey(), e.getValue());
+        return result;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() { return new EntryIterator(); }
+
+            @Override
+            public int size() { return size; }
+        };
+    }
+
+    private Leaf find(String key) {
+        int hash = hash(key);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) return null;
+            Object slot = node.slots[index(node.bitmap, bit)];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+                continue;
+            }
+            for (Leaf leaf = (Leaf) slot; leaf != null; leaf = leaf.next) {
+                if (leaf.hash == hash && leaf.key.equals(key)) return leaf;
+            }
+            return null;
+        }
+    }
+
+    private static Node put(Node node, int shift, Leaf leaf) {
+        int bit = bit(leaf.hash, shift);
+        int at = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            Object[] slots = new Object[node.slots.length + 1];
+            System.arraycopy(node.slots, 0, slots, 0, at);
+            slots[at] = leaf;
+            System.arraycopy(node.slots, at, slots, at + 1, node.slots.length - at);
+            return new Node(node.bitmap | bit, slots);
+        }
+        Object slot = node.slots[at];
+        Object replacement;
+        if (slot instanceof Node) {
+            replacement = put((Node) slot, shift + BITS, leaf);
+        } else {
+            Leaf existing = (Leaf) slot;
+            replacement = existing.hash == leaf.hash ? existing.chainPut(leaf)
+                    : put(put(EMPTY.root, shift + BITS, existing), shift + BITS, leaf);
+        }
+        Object[] slots = node.slots.clone();
+        slots[at] = replacement;
+        return new Node(node.bitmap, slots);
+    }
+
+    private static Node remove(Node node, int shift, int hash, String key) {
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0) return node;
+        int at = index(node.bitmap, bit);
+        Object slot = node.slots[at];
+        Object replacement = slot instanceof Node ? remove((Node) slot, shift + BITS, hash, key)
+                : ((Leaf) slot).chainRemove(key);
+        if (replacement == slot) return node;
+        if (replacement != null) {
+            Object[] slots = node.slots.clone();
+            slots[at] = replacement;
+            return new Node(node.bitmap, slots);
+        }
+        if (node.bitmap == bit) return null;
+        Object[] slots = new Object[node.slots.length - 1];
+        System.arraycopy(node.slots, 0, slots, 0, at);
+        System.arraycopy(node.slots, at + 1, slots, at, slots.length - at);
+        return new Node(node.bitmap & ~bit, slots);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) { return 1 << ((hash >>> shift) & MASK); }
+
+    private static int index(int bitmap, int bit) { return Integer.bitCount(bitmap & (bit - 1)); }
+
+    /** A trie node: one slot per set bit of the bitmap, each a Node or a chain of Leaves. */
+    private static final class Node {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    /** One key, chained to the other keys with the same full hash. */
+    private static final class Leaf {
+        private final String key;
+        private final int hash;
+        private final Object value;
+        private final int position;
+        private final Leaf next;
+
+        private Leaf(String key, int hash, Object value, int position, Leaf next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.position = position;
+            this.next = next;
+        }
+
+        Leaf chainPut(Leaf leaf) {
+            if (key.equals(leaf.key)) return new Leaf(key, hash, leaf.value, leaf.position, next);
+            return new Leaf(key, hash, value, position, next == null ? leaf : next.chainPut(leaf));
+        }
+
+        Leaf chainRemove(String removed) {
+            if (key.equals(removed)) return next;
+            Leaf rest = next == null ? null : next.chainRemove(removed);
+            return rest == next ? this : new Leaf(key, hash, value, position, rest);
+        }
+    }
+
+    /** Walks the keys in insertion order, skipping the gaps left by removed keys. */
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int position;
+        private int returned;
+
+        @Override
+        public boolean hasNext() { return returned < size; }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Object key;
+            do key = order.get(position++); while (key == null);
+            returned++;
+            return new SimpleImmutableEntry<>((String) key, get(key));
+        }
+    }
+}
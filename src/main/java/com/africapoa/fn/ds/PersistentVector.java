@@ -0,0 +1,172 @@
+package com.africapoa.fn.ds;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * An immutable JSON array stored as a 32-way trie of leaf blocks plus a tail block.
+ * <p>
+ * Reads and updates touch one block per level, so they are O(log32 n), and an update copies only
+ * the path to the changed element: every other block is shared with the original vector.
+ * Appends go to the tail and are amortised O(1). The vector is a read-only {@code List}, the
+ * {@code List} mutators throw {@link UnsupportedOperationException}.
+ * </p>
+ */
+final class PersistentVector extends AbstractList<Object> implements RandomAccess {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final PersistentVector EMPTY = new PersistentVector(0, BITS, new Object[WIDTH], new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @Override
+    public Object get(int index) {
+        Objects.checkIndex(index, size);
+        return blockFor(index)[index & MASK];
+    }
+
+    @Override
+    public int size() { return size; }
+
+    /**
+     * Appends an element.
+     *
+     * @param value the element
+     * @return a vector with the element added at the end
+     */
+    PersistentVector plus(Object value) {
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new PersistentVector(size + 1, shift, root, newTail);
+        }
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector(size + 1, newShift, newRoot, new Object[]{value});
+    }
+
+    /**
+     * Replaces an element.
+     *
+     * @param index the position of the element
+     * @param value the new element
+     * @return a vector with the element replaced
+     */
+    PersistentVector with(int index, Object value) {
+        Objects.checkIndex(index, size);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = value;
+            return new PersistentVector(size, shift, root, newTail);
+        }
+        return new PersistentVector(size, shift, replace(shift, root, index, value), tail);
+    }
+
+    /**
+     * Removes an element. Later elements move down one position, which rebuilds the vector from
+     * the removed position on.
+     *
+     * @param index the position of the element
+     * @return a vector without the element
+     */
+    PersistentVector without(int index) {
+        Objects.checkIndex(index, size);
+        PersistentVector result = index == 0 ? EMPTY : this;
+        int keep = index;
+        while (result.size > keep) result = result.pop();
+        for (int i = index + 1; i < size; i++) result = result.plus(get(i));
+        return result;
+    }
+
+    private PersistentVector pop() {
+        if (size == 1) return EMPTY;
+        if (size - tailOffset() > 1) return new PersistentVector(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        Object[] newTail = blockFor(size - 2);
+        Object[] newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null) newRoot = EMPTY.root;
+        if (shift > BITS && newRoot[1] == null) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector(size - 1, newShift, newRoot, newTail);
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] blockFor(int index) {
+        if (index >= tailOffset()) return tail;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) node = (Object[]) node[(index >>> level) & MASK];
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] block) {
+        int slot = ((size - 1) >>> level) & MASK;
+        Object[] result = parent.clone();
+        if (level == BITS) {
+            result[slot] = block;
+        } else {
+            Object[] child = (Object[]) parent[slot];
+            result[slot] = child != null ? pushTail(level - BITS, child, block) : newPath(level - BITS, block);
+        }
+        return result;
+    }
+
+    private Object[] popTail(int level, Object[] node) {
+        int slot = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] child = popTail(level - BITS, (Object[]) node[slot]);
+            if (child == null && slot == 0) return null;
+            Object[] result = node.clone();
+            result[slot] = child;
+            return result;
+        }
+        if (slot == 0) return null;
+        Object[] result = node.clone();
+        result[slot] = null;
+        return result;
+    }
+
+    private static Object[] newPath(int level, Object[] block) {
+        if (level == 0) return block;
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, block);
+        return path;
+    }
+
+    private static Object[] replace(int level, Object[] node, int index, Object value) {
+        Object[] result = node.clone();
+        if (level == 0) {
+            result[index & MASK] = value;
+        } else {
+            int slot = (index >>> level) & MASK;
+            result[slot] = replace(level - BITS, (Object[]) node[slot], index, value);
+        }
+        return result;
+    }
+}
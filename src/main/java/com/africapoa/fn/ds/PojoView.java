@@ -0,0 +1,358 @@
+package com.africapoa.fn.ds;
+
+import com.africapoa.fn.utils.JsonUtil;
+import com.google.gson.annotations.SerializedName;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import static com.africapoa.fn.utils.Log.log;
+
+/**
+ * Live Map/List views over plain Java objects, so JsonQ can query them without a JSON round trip.
+ * <p>
+ * Fields are read through {@link MethodHandle} getters cached once per class. Values are converted
+ * lazily on read to what a parsed document would hold: numbers become Double, enums and chars
+ * become strings, nested objects, collections and arrays become views themselves. Like Gson,
+ * static, transient and synthetic fields are skipped, {@link SerializedName} is honoured and null
+ * fields are left out. A view copies itself the first time it is written to, after which it
+ * behaves like an ordinary map or list. It hands out the same view of a nested object on every
+ * read, so writes made deeper down are kept too.
+ * </p>
+ */
+final class PojoView {
+    private static final ClassValue<Accessors> ACCESSORS = new ClassValue<Accessors>() {
+        @Override
+        protected Accessors computeValue(Class<?> type) { return Accessors.of(type); }
+    };
+
+    private PojoView() {}
+
+    /**
+     * Converts a value into the form a parsed document would hold.
+     *
+     * @param value any value
+     * @return null, a String, Double or Boolean, or a Map/List view
+     */
+    static Object view(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean) return value;
+        if (value instanceof Double) return value;
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof Character || value instanceof Enum<?>) return value.toString();
+        if (value instanceof Map<?, ?>) return new MapView((Map<?, ?>) value);
+        if (value instanceof Collection<?>) return new ListView(value, ((Collection<?>) value).size());
+        if (value.getClass().isArray()) return new ListView(value, Array.getLength(value));
+        Accessors accessors = isViewable(value.getClass()) ? ACCESSORS.get(value.getClass()) : null;
+        return accessors != null ? new ObjectView(value, accessors) : roundTrip(value);
+    }
+
+    private static boolean isViewable(Class<?> type) {
+        String name = type.getName();
+        return !(name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+                || name.startsWith("sun.") || name.startsWith("com.google.gson.") || name.startsWith("kotlin."));
+    }
+
+    private static Object roundTrip(Object value) {
+        return JsonUtil.getGson().fromJson(JsonUtil.getGson().toJson(value), Object.class);
+    }
+
+    /**
+     * Picks the view to hand out for a nested value: the one handed out before if it still views
+     * the same object, so that writes made through it are not lost.
+     *
+     * @param known the view handed out before, or null
+     * @param fresh the value just read
+     * @return {@code known} or {@code fresh}
+     */
+    private static Object reuse(Object known, Object fresh) {
+        return known != null && targetOf(known) == targetOf(fresh) ? known : fresh;
+    }
+
+    private static Object targetOf(Object view) {
+        return view instanceof ObjectView ? ((ObjectView) view).target
+                : view instanceof MapView ? ((MapView) view).target
+                : view instanceof ListView ? ((ListView) view).target : null;
+    }
+
+    /** The readable fields of one class, in Gson's order: the class itself first, then its parents. */
+    private static final class Accessors {
+        private final String[] names;
+        private final MethodHandle[] getters;
+        private final Map<String, Integer> positions = new HashMap<>();
+
+        private Accessors(List<String> names, List<MethodHandle> getters) {
+            this.names = names.toArray(new String[0]);
+            this.getters = getters.toArray(new MethodHandle[0]);
+            for (int i = 0; i < this.names.length; i++) positions.putIfAbsent(this.names[i], i);
+        }
+
+        static Accessors of(Class<?> type) {
+            List<String> names = new ArrayList<>();
+            List<MethodHandle> getters = new ArrayList<>();
+            MethodType erased = MethodType.methodType(Object.class, Object.class);
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                            continue;
+                        if (!field.trySetAccessible()) return null;
+                        SerializedName serialized = field.getAnnotation(SerializedName.class);
+                        names.add(serialized != null ? serialized.value() : field.getName());
+                        getters.add(lookup.unreflectGetter(field).asType(erased));
+                    }
+                }
+            } catch (IllegalAccessException | RuntimeException e) {
+                log(e);
+                return null;
+            }
+            return new Accessors(names, getters);
+        }
+
+        Object read(Object target, int position) {
+            try {
+                return (Object) getters[position].invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to read " + names[position], e);
+            }
+        }
+    }
+
+    /** Base of the Map views, switches to a private copy on the first write. */
+    private abstract static class WritableMapView extends AbstractMap<String, Object> {
+        private Map<String, Object> copy;
+        /** The views of nested values handed out so far. */
+        private Map<Object, Object> children;
+
+        abstract Iterator<Entry<String, Object>> liveEntries();
+
+        abstract Object liveGet(Object key);
+
+        @Override
+        public Object get(Object key) { return copy != null ? copy.get(key) : child(key, liveGet(key)); }
+
+        private Object child(Object key, Object value) {
+            if (targetOf(value) == null) return value;
+            if (children == null) children = new HashMap<>();
+            Object child = reuse(children.get(key), value);
+            children.put(key, child);
+            return child;
+        }
+
+        @Override
+        public boolean containsKey(Object key) { return get(key) != null; }
+
+        @Override
+        public Object put(String key, Object value) { return detach().put(key, value); }
+
+        @Override
+        public Object remove(Object key) { return detach().remove(key); }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            if (copy != null) return copy.entrySet();
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Iterator<Entry<String, Object>> entries = liveEntries();
+                    return new Iterator<Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() { return entries.hasNext(); }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            Entry<String, Object> e = entries.next();
+                            Object value = child(e.getKey(), e.getValue());
+                            return value == e.getValue() ? e : new SimpleImmutableEntry<>(e.getKey(), value);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Iterator<?> it = liveEntries(); it.hasNext(); it.next()) size++;
+                    return size;
+                }
+            };
+        }
+
+        private Map<String, Object> detach() {
+            if (copy == null) {
+                Map<String, Object> detached = new LinkedHashMap<>();
+                for (Iterator<Entry<String, Object>> it = liveEntries(); it.hasNext(); ) {
+                    Entry<String, Object> e = it.next();
+                    detached.put(e.getKey(), child(e.getKey(), e.getValue()));
+                }
+                copy = detached;
+                children = null;
+            }
+            return copy;
+        }
+    }
+
+    /** The fields of an object. */
+    private static final class ObjectView extends WritableMapView {
+        private final Object target;
+        private final Accessors accessors;
+
+        private ObjectView(Object target, Accessors accessors) {
+            this.target = target;
+            this.accessors = accessors;
+        }
+
+        @Override
+        Object liveGet(Object key) {
+            Integer position = accessors.positions.get(key);
+            return position == null ? null : view(accessors.read(target, position));
+        }
+
+        @Override
+        Iterator<Entry<String, Object>> liveEntries() {
+            return new SkippingIterator(accessors.names.length) {
+                @Override
+                Entry<String, Object> at(int position) {
+                    Object value = accessors.read(target, position);
+                    return value == null ? null : new SimpleImmutableEntry<>(accessors.names[position], view(value));
+                }
+            };
+        }
+    }
+
+    /** A map of arbitrary values, keyed by the string form of its keys. */
+    private static final class MapView extends WritableMapView {
+        private final Map<?, ?> target;
+
+        private MapView(Map<?, ?> target) { this.target = target; }
+
+        @Override
+        Object liveGet(Object key) {
+            Object value = target.get(key);
+            if (value != null || hasStringKeys()) return view(value);
+            for (Entry<?, ?> e : target.entrySet()) {
+                if (String.valueOf(e.getKey()).equals(key)) return view(e.getValue());
+            }
+            return null;
+        }
+
+        private boolean hasStringKeys() {
+            Iterator<?> keys = target.keySet().iterator();
+            return !keys.hasNext() || keys.next() instanceof String;
+        }
+
+        @Override
+        Iterator<Entry<String, Object>> liveEntries() {
+            Iterator<? extends Entry<?, ?>> entries = target.entrySet().iterator();
+            return new SkippingIterator(Integer.MAX_VALUE) {
+                @Override
+                boolean exhausted() { return !entries.hasNext(); }
+
+                @Override
+                Entry<String, Object> at(int position) {
+                    Entry<?, ?> e = entries.next();
+                    return e.getValue() == null ? null
+                            : new SimpleImmutableEntry<>(String.valueOf(e.getKey()), view(e.getValue()));
+                }
+            };
+        }
+    }
+
+    /** The elements of a collection or array. */
+    private static final class ListView extends AbstractList<Object> implements RandomAccess {
+        private final Object target;
+        private final int size;
+        private Object[] elements;
+        /** The views of nested values handed out so far, by index. */
+        private Object[] children;
+        private List<Object> copy;
+
+        private ListView(Object target, int size) {
+            this.target = target;
+            this.size = size;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (copy != null) return copy.get(index);
+            Object value = view(liveGet(index));
+            if (targetOf(value) == null) return value;
+            if (children == null) children = new Object[size];
+            return children[index] = reuse(children[index], value);
+        }
+
+        private Object liveGet(int index) {
+            if (target instanceof List<?> && target instanceof RandomAccess) return ((List<?>) target).get(index);
+            if (target.getClass().isArray()) return Array.get(target, index);
+            if (elements == null) elements = ((Collection<?>) target).toArray();
+            return elements[index];
+        }
+
+        @Override
+        public int size() { return copy != null ? copy.size() : size; }
+
+        @Override
+        public Object set(int index, Object element) { return detach().set(index, element); }
+
+        @Override
+        public void add(int index, Object element) { detach().add(index, element); }
+
+        @Override
+        public Object remove(int index) { return detach().remove(index); }
+
+        private List<Object> detach() {
+            if (copy == null) {
+                List<Object> detached = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) detached.add(get(i));
+                copy = detached;
+                children = null;
+            }
+            modCount++;
+            return copy;
+        }
+    }
+
+    /** Iterates positions, skipping those that produce no entry. */
+    private abstract static class SkippingIterator implements Iterator<Map.Entry<String, Object>> {
+        private final int end;
+        private int position;
+        private Map.Entry<String, Object> next;
+
+        SkippingIterator(int end) { this.end = end; }
+
+        abstract Map.Entry<String, Object> at(int position);
+
+        boolean exhausted() { return position >= end; }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !exhausted()) next = at(position++);
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Map.Entry<String, Object> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.africapoa.fn.ds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * A secondary index over one field of the rows of a JSON array.
+ * <p>
+ * Keys are the expression operands of the field values (see {@link Comparison#operandOf}),
+ * so an index lookup answers a filter exactly the way the row-by-row evaluation would.
+ * Lookups return row positions in ascending order to keep query results in document order.
+ * </p>
+ */
+abstract class RowIndex {
+    final String field;
+    /** The key each row is indexed under, so that a changed row can leave its old bucket. */
+    private Object[] rowKeys = new Object[16];
+
+    private RowIndex(String field) { this.field = field; }
+
+    /**
+     * Indexes one row.
+     *
+     * @param row   the position of the row in the array
+     * @param value the value of {@link #field} in that row
+     */
+    final void add(int row, Object value) {
+        Object key = Comparison.operandOf(value);
+        if (row >= rowKeys.length) rowKeys = Arrays.copyOf(rowKeys, Math.max(rowKeys.length * 2, row + 1));
+        rowKeys[row] = key;
+        if (key != null) insert(row, key);
+    }
+
+    /**
+     * Indexes a row again after it was changed in place.
+     *
+     * @param row   the position of the row in the array
+     * @param value the value of {@link #field} in that row now
+     */
+    final void update(int row, Object value) {
+        Object before = keyOf(row);
+        if (Objects.equals(before, Comparison.operandOf(value))) return;
+        if (before != null) delete(row, before);
+        add(row, value);
+    }
+
+    /**
+     * Returns the key a row is indexed under.
+     *
+     * @param row the position of the row in the array
+     * @return the key, or null if the row has no value to index
+     */
+    Object keyOf(int row) {
+        return row < rowKeys.length ? rowKeys[row] : null;
+    }
+
+    /** Adds a row under its key. */
+    abstract void insert(int row, Object key);
+
+    /** Takes a row out from under the key it was inserted with. */
+    abstract void delete(int row, Object key);
+
+    /**
+     * Finds the rows passing a comparison on {@link #field}.
+     *
+     * @param comparison the comparison to answer
+     * @return the matching row positions in ascending order, or null if this index cannot answer it
+     */
+    abstract int[] lookup(Comparison comparison);
+
+    /**
+     * Lists the indexed rows in key order, rows sharing a key in ascending position.
+     *
+     * @param ascending the direction of the keys
+     * @return the positions of every row with a key, or null if this index is not ordered
+     */
+    abstract int[] ordered(boolean ascending);
+
+    /**
+     * Compares two keys the way a sorted index orders them: numbers before strings.
+     *
+     * @param a a key, a Double or String
+     * @param b another key
+     * @return a negative number, zero or a positive number as a orders before, with or after b
+     */
+    static int compareKeys(Object a, Object b) {
+        return a instanceof Double && b instanceof Double ? Double.compare((Double) a, (Double) b)
+                : a instanceof Double ? -1
+                : b instanceof Double ? 1
+                : ((String) a).compareTo((String) b);
+    }
+
+    /**
+     * Builds an index over every Map element of an array.
+     *
+     * @param rows   the array
+     * @param field  the field to index
+     * @param sorted whether to build a range index instead of a hash index
+     * @return the populated index
+     */
+    static RowIndex build(List<?> rows, String field, boolean sorted) {
+        RowIndex index = sorted ? new Sorted(field) : new Hashed(field);
+        for (int i = 0, len = rows.size(); i < len; i++) index.add(i, fieldOf(rows.get(i), field));
+        return index;
+    }
+
+    /**
+     * Builds a trigram index over every Map element of an array, answering {@code ~} regex
+     * comparisons.
+     *
+     * @param rows  the array
+     * @param field the field to index
+     * @return the populated index
+     */
+    static RowIndex text(List<?> rows, String field) {
+        RowIndex index = new Trigrams(field);
+        for (int i = 0, len = rows.size(); i < len; i++) index.add(i, fieldOf(rows.get(i), field));
+        return index;
+    }
+
+    /**
+     * Builds a fresh index of the same kind over the current state of an array.
+     *
+     * @param rows the array
+     * @return the new index
+     */
+    RowIndex rebuild(List<?> rows) {
+        return this instanceof Trigrams ? text(rows, field) : build(rows, field, this instanceof Sorted);
+    }
+
+    /**
+     * Reads a field of a row.
+     *
+     * @param row   the row
+     * @param field the field
+     * @return the value, or null if the row is not an object
+     */
+    static Object fieldOf(Object row, String field) {
+        if (row == null || row instanceof Map<?, ?> || row instanceof List<?>) {
+            return row instanceof Map<?, ?> ? ((Map<?, ?>) row).get(field) : null;
+        }
+        Object node = PojoView.view(row);
+        return node instanceof Map<?, ?> ? ((Map<?, ?>) node).get(field) : null;
+    }
+
+    private static int[] merge(List<Rows> buckets) {
+        int size = 0;
+        for (Rows bucket : buckets) size += bucket.size;
+        int[] rows = new int[size];
+        int at = 0;
+        for (Rows bucket : buckets) {
+            System.arraycopy(bucket.rows, 0, rows, at, bucket.size);
+            at += bucket.size;
+        }
+        if (buckets.size() > 1) Arrays.sort(rows);
+        return rows;
+    }
+
+    /** The positions of the rows sharing one key, in ascending order. */
+    private static final class Rows {
+        private int[] rows = new int[2];
+        private int size;
+
+        void add(int row) {
+            int at = size == 0 || rows[size - 1] < row ? size : Arrays.binarySearch(rows, 0, size, row);
+            if (at >= 0 && at < size) return;
+            if (at < 0) at = -at - 1;
+            if (size == rows.length) rows = Arrays.copyOf(rows, size * 2);
+            System.arraycopy(rows, at, rows, at + 1, size - at);
+            rows[at] = row;
+            size++;
+        }
+
+        void remove(int row) {
+            int at = Arrays.binarySearch(rows, 0, size, row);
+            if (at < 0) return;
+            System.arraycopy(rows, at + 1, rows, at, size - at - 1);
+            size--;
+        }
+    }
+
+    /** Takes a row out of the bucket of a key, dropping the bucket once it is empty. */
+    private static void remove(Map<?, Rows> buckets, Object key, int row) {
+        Rows rows = buckets.get(key);
+        if (rows == null) return;
+        rows.remove(row);
+        if (rows.size == 0) buckets.remove(key);
+    }
+
+    /**
+     * Regex lookups through the three-character substrings of the values.
+     * <p>
+     * A value matches a regex only if it contains every literal the regex requires, so the
+     * rows holding all the trigrams of those literals are the only candidates; the regex is then
+     * run on those rows alone. The text indexed is the string the comparison tests, that is the
+     * operand of the value (see {@link Comparison#operandOf}) as a String.
+     * </p>
+     */
+    private static final class Trigrams extends RowIndex {
+        private final Map<Long, Rows> grams = new HashMap<>();
+
+        private Trigrams(String field) { super(field); }
+
+        @Override
+        void insert(int row, Object key) {
+            String text = String.valueOf(key);
+            for (int i = 0; i + 3 <= text.length(); i++) grams.computeIfAbsent(gram(text, i), k -> new Rows()).add(row);
+        }
+
+        @Override
+        void delete(int row, Object key) {
+            String text = String.valueOf(key);
+            for (int i = 0; i + 3 <= text.length(); i++) remove(grams, gram(text, i), row);
+        }
+
+        @Override
+        int[] lookup(Comparison comparison) {
+            if (!comparison.op.equals("~")) return null;
+            List<String> literals = requiredLiterals(String.valueOf(comparison.operand));
+            if (literals == null) return null;
+            List<Rows> postings = new ArrayList<>();
+            for (String literal : literals) {
+                for (int i = 0; i + 3 <= literal.length(); i++) {
+                    Rows rows = grams.get(gram(literal, i));
+                    if (rows == null) return new int[0];
+                    postings.add(rows);
+                }
+            }
+            if (postings.isEmpty()) return null;
+            postings.sort((a, b) -> Integer.compare(a.size, b.size));
+            int[] candidates = Arrays.copyOf(postings.get(0).rows, postings.get(0).size);
+            int size = candidates.length;
+            for (int p = 1; p < postings.size() && size > 0; p++) size = intersect(candidates, size, postings.get(p));
+            int matched = 0;
+            for (int i = 0; i < size; i++) {
+                if (comparison.test(keyOf(candidates[i]))) candidates[matched++] = candidates[i];
+            }
+            return Arrays.copyOf(candidates, matched);
+        }
+
+        @Override
+        int[] ordered(boolean ascending) { return null; }
+
+        /** Keeps the candidates also in a posting list; both are in ascending order. */
+        private static int intersect(int[] candidates, int size, Rows rows) {
+            int kept = 0, j = 0;
+            for (int i = 0; i < size && j < rows.size; i++) {
+                while (j < rows.size && rows.rows[j] < candidates[i]) j++;
+                if (j < rows.size && rows.rows[j] == candidates[i]) candidates[kept++] = candidates[i];
+            }
+            return kept;
+        }
+
+        private static long gram(String text, int at) {
+            return (long) text.charAt(at) << 32 | (long) text.charAt(at + 1) << 16 | text.charAt(at + 2);
+        }
+
+        /**
+         * Lists literal runs that every string matching a regex must contain, reading only plain
+         * characters, escaped punctuation and simple quantifiers. Groups and character classes
+         * end a run and are skipped.
+         *
+         * @param regex the regex, matched against whole values
+         * @return the literals, or null if the regex uses alternation, flags or escapes whose
+         *         meaning is not plain
+         */
+        static List<String> requiredLiterals(String regex) {
+            List<String> literals = new ArrayList<>();
+            StringBuilder run = new StringBuilder();
+            for (int i = 0, len = regex.length(); i < len; i++) {
+                char c = regex.charAt(i);
+                switch (c) {
+                    case '\\':
+                        if (++i >= len) return null;
+                        char e = regex.charAt(i);
+                        if ("dDwWsSbB".indexOf(e) >= 0) endRun(run, literals);
+                        else if (e == 'n' || e == 't' || e == 'r' || e == 'f') run.append(e == 'n' ? '\n' : e == 't' ? '\t' : e == 'r' ? '\r' : '\f');
+                        else if (Character.isLetterOrDigit(e)) return null;
+                        else run.append(e);
+                        break;
+                    case '|':
+                        return null;
+                    case '(':
+                        if (i + 1 < len && regex.charAt(i + 1) == '?') return null;
+                        i = skipGroup(regex, i);
+                        if (i < 0) return null;
+                        endRun(run, literals);
+                        break;
+                    case '[':
+                        i = skipClass(regex, i);
+                        if (i < 0) return null;
+                        endRun(run, literals);
+                        break;
+                    case '?': case '*': case '{':
+                        if (run.length() > 0) run.setLength(run.length() - 1);
+                        endRun(run, literals);
+                        if (c == '{') {
+                            i = regex.indexOf('}', i);
+                            if (i < 0) return null;
+                        }
+                        if (i + 1 < len && (regex.charAt(i + 1) == '?' || regex.charAt(i + 1) == '+')) i++;
+                        break;
+                    case '+':
+                        char repeated = run.length() > 0 ? run.charAt(run.length() - 1) : 0;
+                        endRun(run, literals);
+                        if (repeated != 0) run.append(repeated);
+                        if (i + 1 < len && (regex.charAt(i + 1) == '?' || regex.charAt(i + 1) == '+')) i++;
+                        break;
+                    case '.': case '^': case '$':
+                        endRun(run, literals);
+                        break;
+                    case ')': case ']': case '}':
+                        return null;
+                    default:
+                        run.append(c);
+                }
+            }
+            endRun(run, literals);
+            return literals;
+        }
+
+        private static void endRun(StringBuilder run, List<String> literals) {
+            if (run.length() >= 3) literals.add(run.toString());
+            run.setLength(0);
+        }
+
+        /** Returns the position of the parenthesis closing a group, or -1. */
+        private static int skipGroup(String regex, int open) {
+            int depth = 0;
+            for (int i = open; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') i++;
+                else if (c == '[') {
+                    i = skipClass(regex, i);
+                    if (i < 0) return -1;
+                } else if (c == '(') depth++;
+                else if (c == ')' && --depth == 0) return i;
+            }
+            return -1;
+        }
+
+        /** Returns the position of the bracket closing a character class, or -1. */
+        private static int skipClass(String regex, int open) {
+            int i = open + 1;
+            if (i < regex.length() && regex.charAt(i) == '^') i++;
+            if (i < regex.length() && regex.charAt(i) == ']') i++;
+            for (int depth = 1; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') i++;
+                else if (c == '[') depth++;
+                else if (c == ']' && --depth == 0) return i;
+            }
+            return -1;
+        }
+    }
+
+    /** Equality lookups through a hash table. */
+    private static final class Hashed extends RowIndex {
+        private final Map<Object, Rows> keys = new HashMap<>();
+
+        private Hashed(String field) { super(field); }
+
+        @Override
+        void insert(int row, Object key) {
+            keys.computeIfAbsent(key, k -> new Rows()).add(row);
+        }
+
+        @Override
+        void delete(int row, Object key) {
+            remove(keys, key, row);
+        }
+
+        @Override
+        int[] lookup(Comparison comparison) {
+            if (!comparison.op.equals("==")) return null;
+            List<Rows> buckets = new ArrayList<>(2);
+            for (Object key : equalKeys(comparison.operand)) {
+                Rows rows = keys.get(key);
+                if (rows != null) buckets.add(rows);
+            }
+            return merge(buckets);
+        }
+
+        @Override
+        int[] ordered(boolean ascending) { return null; }
+    }
+
+    /** Equality and range lookups through a sorted tree, numbers before strings. */
+    private static final class Sorted extends RowIndex {
+        private final TreeMap<Object, Rows> keys = new TreeMap<>(RowIndex::compareKeys);
+
+        private Sorted(String field) { super(field); }
+
+        @Override
+        void insert(int row, Object key) {
+            keys.computeIfAbsent(key, k -> new Rows()).add(row);
+        }
+
+        @Override
+        void delete(int row, Object key) {
+            remove(keys, key, row);
+        }
+
+        @Override
+        int[] lookup(Comparison comparison) {
+            List<Rows> buckets = new ArrayList<>();
+            if (comparison.op.equals("==")) {
+                for (Object key : equalKeys(comparison.operand)) {
+                    Rows rows = keys.get(key);
+                    if (rows != null) buckets.add(rows);
+                }
+                return merge(buckets);
+            }
+            NavigableMap<Object, Rows> sameType = comparison.operand instanceof Double
+                    ? keys.headMap("", false) : keys.tailMap("", true);
+            NavigableMap<Object, Rows> otherType = comparison.operand instanceof Double
+                    ? keys.tailMap("", true) : keys.headMap("", false);
+            Object at = comparison.operand;
+            switch (comparison.op) {
+                case ">": buckets.addAll(sameType.tailMap(at, false).values()); break;
+                case ">=": buckets.addAll(sameType.tailMap(at, true).values()); break;
+                case "<": buckets.addAll(sameType.headMap(at, false).values()); break;
+                case "<=": buckets.addAll(sameType.headMap(at, true).values()); break;
+                default: return null;
+            }
+            for (Map.Entry<Object, Rows> e : otherType.entrySet()) {
+                if (comparison.test(e.getKey())) buckets.add(e.getValue());
+            }
+            return merge(buckets);
+        }
+
+        @Override
+        int[] ordered(boolean ascending) {
+            int size = 0;
+            for (Rows bucket : keys.values()) size += bucket.size;
+            int[] rows = new int[size];
+            int at = 0;
+            for (Rows bucket : (ascending ? keys : keys.descendingMap()).values()) {
+                System.arraycopy(bucket.rows, 0, rows, at, bucket.size);
+                at += bucket.size;
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Lists the keys a value is equal to under {@link Comparison}: the value itself plus, since
+     * mixed comparisons fall back to strings, its counterpart of the other type.
+     */
+    private static List<Object> equalKeys(Object operand) {
+        List<Object> keys = new ArrayList<>(2);
+        keys.add(operand);
+        if (operand instanceof Double) keys.add(String.valueOf(operand));
+        else {
+            try {
+                double number = Double.parseDouble((String) operand);
+                if (String.valueOf(number).equals(operand)) keys.add(number);
+            } catch (NumberFormatException ignored) {}
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,104 @@
+package com.africapoa.fn.ds;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interned key table shared by every {@link CompactMap} whose keys were added in the same order.
+ * <p>
+ * Shapes form a transition tree that starts at a per-document root, so an array of same-shaped
+ * records ends up pointing at a single key table instead of each record carrying its own keys.
+ * </p>
+ */
+final class Shape {
+    /** Objects with more keys than this are kept as plain maps, they rarely share a shape. */
+    static final int MAX_KEYS = 64;
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    private final Shape root;
+    private final String[] keys;
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new ConcurrentHashMap<>();
+
+    private Shape(Shape root, String[] keys) {
+        this.root = root == null ? this : root;
+        this.keys = keys;
+        this.slots = keys.length > LINEAR_SCAN_LIMIT ? indexKeys(keys) : null;
+    }
+
+    /**
+     * Creates an empty root shape. Each document gets its own root so that unrelated documents
+     * never keep each other's key tables alive.
+     *
+     * @return a new empty shape
+     */
+    static Shape root() {
+        return new Shape(null, new String[0]);
+    }
+
+    /**
+     * Returns the shape reached by appending the given key to this shape.
+     *
+     * @param key the key to append
+     * @return the shared shape holding this shape's keys followed by {@code key}
+     */
+    Shape with(String key) {
+        Shape next = transitions.get(key);
+        if (next != null) return next;
+        String[] grown = new String[keys.length + 1];
+        System.arraycopy(keys, 0, grown, 0, keys.length);
+        grown[keys.length] = key;
+        Shape created = new Shape(root, grown);
+        next = transitions.putIfAbsent(key, created);
+        return next != null ? next : created;
+    }
+
+    /**
+     * Returns the shape holding this shape's keys without the key at the given slot.
+     *
+     * @param slot the slot to drop
+     * @return the shape with the remaining keys in their original order
+     */
+    Shape without(int slot) {
+        Shape shape = root;
+        for (int i = 0; i < keys.length; i++) {
+            if (i != slot) shape = shape.with(keys[i]);
+        }
+        return shape;
+    }
+
+    /**
+     * Looks up the slot of a key.
+     *
+     * @param key the key to find
+     * @return the slot index, or -1 if the key is not part of this shape
+     */
+    int slotOf(Object key) {
+        if (slots != null) {
+            Integer slot = slots.get(key);
+            return slot == null ? -1 : slot;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the empty shape this shape was grown from.
+     *
+     * @return the root of this shape's transition tree
+     */
+    Shape empty() { return root; }
+
+    String key(int slot) { return keys[slot]; }
+
+    int size() { return keys.length; }
+
+    private static Map<String, Integer> indexKeys(String[] keys) {
+        Map<String, Integer> slots = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) slots.put(keys[i], i);
+        return slots;
+    }
+}
@@ -0,0 +1,126 @@
+package com.africapoa.fn.ds;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.africapoa.fn.utils.Log.log;
+
+/**
+ * A document shared between threads.
+ * <p>
+ * The holder publishes immutable {@link JsonQ#snapshot() snapshots} through an atomic reference.
+ * Readers call {@link #get()} and query the snapshot they got without any locking, while writers
+ * and reloads build the next version on the side and swap it in. A reader keeps a consistent view
+ * of the version it started with, however many versions are published meanwhile.
+ * </p>
+ * <pre>{@code
+ * SharedJsonQ rates = SharedJsonQ.of(JsonQ.fromIO(file))
+ *         .reloadEvery(() -> JsonQ.fromIO(file), 5, TimeUnit.MINUTES);
+ * double usd = rates.get().get("$.rates.USD").val();
+ * }</pre>
+ */
+public final class SharedJsonQ implements AutoCloseable {
+    private final AtomicReference<JsonQ> current;
+    private volatile Callable<JsonQ> loader;
+    private ScheduledExecutorService reloads;
+
+    private SharedJsonQ(JsonQ initial) {
+        current = new AtomicReference<>(initial.snapshot());
+    }
+
+    /**
+     * Starts sharing a document. The document is copied into a snapshot, so later changes to it
+     * are not seen by readers.
+     *
+     * @param document The document to share
+     * @return The holder
+     */
+    public static SharedJsonQ of(JsonQ document) {
+        return new SharedJsonQ(document);
+    }
+
+    /**
+     * Returns the current version. Never blocks.
+     *
+     * @return The current snapshot, which never changes
+     */
+    public JsonQ get() {
+        return current.get();
+    }
+
+    /**
+     * Replaces the current version.
+     *
+     * @param document The new version, copied into a snapshot
+     */
+    public void publish(JsonQ document) {
+        current.set(document.snapshot());
+    }
+
+    /**
+     * Derives a new version from the current one. If another thread publishes first, the
+     * update is retried on that newer version, so the function should have no side effects.
+     *
+     * @param update Builds the next version, typically through {@link JsonQ#with(String, Object)}
+     * @return The version that was published
+     */
+    public JsonQ update(JsonQ.JFunction<JsonQ, JsonQ> update) {
+        while (true) {
+            JsonQ before = current.get();
+            JsonQ after = update.apply(before).snapshot();
+            if (current.compareAndSet(before, after)) return after;
+        }
+    }
+
+    /**
+     * Reloads the document in the background at a fixed rate. A load that fails or returns null
+     * is logged and the current version is kept.
+     *
+     * @param loader Loads a fresh copy of the document
+     * @param period The time between loads
+     * @param unit   The unit of the period
+     * @return This holder
+     */
+    public synchronized SharedJsonQ reloadEvery(Callable<JsonQ> loader, long period, TimeUnit unit) {
+        this.loader = loader;
+        if (reloads == null) {
+            reloads = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "SharedJsonQ-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloads.scheduleAtFixedRate(this::reload, period, period, unit);
+        }
+        return this;
+    }
+
+    /**
+     * Loads and publishes a fresh copy of the document now, using the loader given to
+     * {@link #reloadEvery(Callable, long, TimeUnit)}.
+     *
+     * @return true if a new version was published
+     */
+    public boolean reload() {
+        Callable<JsonQ> load = loader;
+        if (load == null) return false;
+        try {
+            JsonQ fresh = load.call();
+            if (fresh == null) return false;
+            publish(fresh);
+            return true;
+        } catch (Exception e) {log(e);}
+        return false;
+    }
+
+    /**
+     * Stops the background reloads, if any.
+     */
+    @Override
+    public synchronized void close() {
+        if (reloads != null) reloads.shutdownNow();
+        reloads = null;
+    }
+}
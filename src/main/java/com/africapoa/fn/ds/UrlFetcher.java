@@ -0,0 +1,222 @@
+package com.africapoa.fn.ds;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import static com.africapoa.fn.utils.Log.log;
+
+/**
+ * Fetches JSON documents over HTTP, reusing connections and revalidating cached responses.
+ * <p>
+ * All requests go through one shared {@link HttpClient}, so connections to the same host are
+ * kept alive between calls. Responses are requested gzip or deflate compressed. A response with an
+ * {@code ETag} or {@code Last-Modified} header is cached, in memory and, if a cache directory is
+ * set, on disk; the next request for the same URL is made conditional and a
+ * {@code 304 Not Modified} answer is served from the cache without downloading the body again.
+ * </p>
+ */
+final class UrlFetcher {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final int MEMORY_ENTRIES = 256;
+    private static final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    private static final Map<String, Cached> memory = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    private static volatile Path cacheDir;
+
+    private UrlFetcher() {}
+
+    /**
+     * Sets the directory responses are also cached in, so that they survive restarts.
+     *
+     * @param dir the directory, created if missing, or null to cache in memory only
+     */
+    static void cacheIn(Path dir) {
+        cacheDir = dir;
+    }
+
+    /**
+     * Fetches a URL, blocking until the body is available.
+     *
+     * @param url the URL to fetch
+     * @return the decoded body
+     * @throws IOException if the request fails or the server answers with an error
+     */
+    static byte[] fetch(String url) throws IOException {
+        Cached cached = cached(url);
+        try {
+            return handle(url, cached, client.send(request(url, cached), HttpResponse.BodyHandlers.ofByteArray()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + url, e);
+        }
+    }
+
+    /**
+     * Fetches a URL without blocking.
+     *
+     * @param url the URL to fetch
+     * @return the decoded body, or a future failed with the reason the fetch failed
+     */
+    static CompletableFuture<byte[]> fetchAsync(String url) {
+        Cached cached = cached(url);
+        HttpRequest request;
+        try {
+            request = request(url, cached);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            try {
+                return handle(url, cached, response);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static HttpRequest request(String url, Cached cached) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(TIMEOUT)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip, deflate")
+                .GET();
+        if (cached != null && cached.etag != null) request.header("If-None-Match", cached.etag);
+        if (cached != null && cached.lastModified != null) request.header("If-Modified-Since", cached.lastModified);
+        return request.build();
+    }
+
+    private static byte[] handle(String url, Cached cached, HttpResponse<byte[]> response) throws IOException {
+        int status = response.statusCode();
+        if (status == 304 && cached != null) return cached.body;
+        if (status < 200 || status >= 300) throw new IOException("HTTP " + status + " from " + url);
+        byte[] body = decode(response.body(), response.headers().firstValue("Content-Encoding").orElse(""));
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        if (etag != null || lastModified != null) store(url, new Cached(etag, lastModified, body));
+        return body;
+    }
+
+    private static byte[] decode(byte[] body, String encoding) throws IOException {
+        switch (encoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip":
+            case "x-gzip":
+                return readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+            case "deflate":
+                try {
+                    return readAll(new InflaterInputStream(new ByteArrayInputStream(body)));
+                } catch (ZipException e) {
+                    // Some servers send raw deflate data without the zlib wrapper.
+                    return readAll(new InflaterInputStream(new ByteArrayInputStream(body), new Inflater(true)));
+                }
+            default:
+                return body;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private static Cached cached(String url) {
+        synchronized (memory) {
+            Cached cached = memory.get(url);
+            if (cached != null) return cached;
+        }
+        Path file = diskFile(url);
+        if (file == null || !Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            String etag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            Cached cached = new Cached(etag, lastModified, in.readAllBytes());
+            synchronized (memory) {
+                memory.put(url, cached);
+            }
+            return cached;
+        } catch (IOException e) {
+            log(e);
+            return null;
+        }
+    }
+
+    private static void store(String url, Cached cached) {
+        synchronized (memory) {
+            memory.put(url, cached);
+        }
+        Path file = diskFile(url);
+        if (file == null) return;
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                writeOptional(out, cached.etag);
+                writeOptional(out, cached.lastModified);
+                out.write(cached.body);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {log(e);}
+    }
+
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static Path diskFile(String url) {
+        Path dir = cacheDir;
+        if (dir == null) return null;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 5);
+            for (byte b : digest) name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return dir.resolve(name.append(".http").toString());
+        } catch (NoSuchAlgorithmException e) {
+            log(e);
+            return null;
+        }
+    }
+
+    /** A cached response: its validators and its decoded body. */
+    private static final class Cached {
+        private final String etag;
+        private final String lastModified;
+        private final byte[] body;
+
+        private Cached(String etag, String lastModified, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.africapoa.fn.ds;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses JSON straight from UTF-8 bytes, such as a memory-mapped file, into a Map/List tree.
+ * <p>
+ * The document is never decoded as a whole: only string values are, one at a time, through a
+ * reusable scratch buffer. The tree has the same shape a Gson parse gives (ordered maps,
+ * lists, Strings, Doubles, Booleans and nulls). The parser is strict: comments, unquoted or
+ * single-quoted strings and other lenient syntax are rejected, so that callers can fall back
+ * to the lenient text parser.
+ * </p>
+ */
+final class Utf8Json {
+    private final ByteBuffer in;
+    private final int end;
+    private int pos;
+    private byte[] scratch = new byte[256];
+    private final Map<String, String> keys = new HashMap<>();
+
+    private Utf8Json(ByteBuffer in) {
+        this.in = in;
+        this.pos = in.position();
+        this.end = in.limit();
+    }
+
+    /**
+     * Parses a whole document.
+     *
+     * @param bytes the UTF-8 encoded document, from its position to its limit
+     * @return the root value, null for an empty document
+     * @throws IllegalArgumentException if the bytes are not strict JSON
+     */
+    static Object parse(ByteBuffer bytes) {
+        Utf8Json parser = new Utf8Json(bytes);
+        parser.skipBom();
+        parser.skipWhitespace();
+        if (parser.pos == parser.end) return null;
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.pos != parser.end) throw parser.error("trailing data");
+        return value;
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (pos >= end) throw error("unexpected end of input");
+        byte b = in.get(pos);
+        switch (b) {
+            case '{': return readObject();
+            case '[': return readArray();
+            case '"': return readString();
+            case 't': expect("true"); return Boolean.TRUE;
+            case 'f': expect("false"); return Boolean.FALSE;
+            case 'n': expect("null"); return null;
+            default:
+                if (b == '-' || (b >= '0' && b <= '9')) return readNumber();
+                throw error("unexpected character '" + (char) b + "'");
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') throw error("expected a key");
+            String key = keys.computeIfAbsent(readString(), k -> k);
+            skipWhitespace();
+            if (next() != ':') throw error("expected ':'");
+            map.put(key, readValue());
+            skipWhitespace();
+            byte b = next();
+            if (b == '}') return map;
+            if (b != ',') throw error("expected ',' or '}'");
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> list = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(readValue());
+            skipWhitespace();
+            byte b = next();
+            if (b == ']') return list;
+            if (b != ',') throw error("expected ',' or ']'");
+        }
+    }
+
+    private String readString() {
+        pos++;
+        int length = 0;
+        while (true) {
+            byte b = next();
+            if (b == '"') return new String(scratch, 0, length, StandardCharsets.UTF_8);
+            if (b == '\\') length = unescape(length);
+            else if ((b & 0xff) < 0x20) throw error("control character in string");
+            else length = append(length, b);
+        }
+    }
+
+    private int unescape(int length) {
+        byte b = next();
+        switch (b) {
+            case '"': case '\\': case '/': return append(length, b);
+            case 'b': return append(length, (byte) '\b');
+            case 'f': return append(length, (byte) '\f');
+            case 'n': return append(length, (byte) '\n');
+            case 'r': return append(length, (byte) '\r');
+            case 't': return append(length, (byte) '\t');
+            case 'u':
+                int c = hex4();
+                if (Character.isHighSurrogate((char) c) && pos + 1 < end && in.get(pos) == '\\' && in.get(pos + 1) == 'u') {
+                    pos += 2;
+                    int low = hex4();
+                    if (Character.isLowSurrogate((char) low)) return appendCodePoint(length, Character.toCodePoint((char) c, (char) low));
+                    length = appendCodePoint(length, c);
+                    return appendCodePoint(length, low);
+                }
+                return appendCodePoint(length, c);
+            default: throw error("invalid escape '\\" + (char) b + "'");
+        }
+    }
+
+    private int hex4() {
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(next(), 16);
+            if (digit < 0) throw error("invalid unicode escape");
+            c = c << 4 | digit;
+        }
+        return c;
+    }
+
+    private int appendCodePoint(int length, int c) {
+        byte[] bytes = new String(Character.toChars(c)).getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) length = append(length, b);
+        return length;
+    }
+
+    private int append(int length, byte b) {
+        if (length == scratch.length) scratch = Arrays.copyOf(scratch, length * 2);
+        scratch[length] = b;
+        return length + 1;
+    }
+
+    private Double readNumber() {
+        int start = pos;
+        boolean negative = peek() == '-';
+        if (negative) pos++;
+        long integer = 0;
+        int digits = 0;
+        while (pos < end && isDigit(in.get(pos))) {
+            integer = integer * 10 + (in.get(pos++) - '0');
+            digits++;
+        }
+        if (digits == 0) throw error("expected a digit");
+        boolean simple = digits <= 15;
+        if (pos < end && in.get(pos) == '.') {
+            simple = false;
+            pos++;
+            if (pos >= end || !isDigit(in.get(pos))) throw error("expected a digit");
+            while (pos < end && isDigit(in.get(pos))) pos++;
+        }
+        if (pos < end && (in.get(pos) == 'e' || in.get(pos) == 'E')) {
+            simple = false;
+            pos++;
+            if (pos < end && (in.get(pos) == '+' || in.get(pos) == '-')) pos++;
+            if (pos >= end || !isDigit(in.get(pos))) throw error("expected a digit");
+            while (pos < end && isDigit(in.get(pos))) pos++;
+        }
+        if (simple) return negative ? (integer == 0 ? -0.0 : -(double) integer) : (double) integer;
+        byte[] ascii = new byte[pos - start];
+        for (int i = 0; i < ascii.length; i++) ascii[i] = in.get(start + i);
+        return Double.parseDouble(new String(ascii, StandardCharsets.ISO_8859_1));
+    }
+
+    private static boolean isDigit(byte b) { return b >= '0' && b <= '9'; }
+
+    private void expect(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) throw error("expected " + literal);
+        }
+    }
+
+    private void skipBom() {
+        if (end - pos >= 3 && in.get(pos) == (byte) 0xEF && in.get(pos + 1) == (byte) 0xBB && in.get(pos + 2) == (byte) 0xBF) pos += 3;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = in.get(pos);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return;
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        if (pos >= end) throw error("unexpected end of input");
+        return in.get(pos);
+    }
+
+    private byte next() {
+        if (pos >= end) throw error("unexpected end of input");
+        return in.get(pos++);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Malformed JSON at byte " + pos + ": " + message);
+    }
+}
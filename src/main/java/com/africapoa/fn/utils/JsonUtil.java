@@ -1,29 +1,109 @@
 package com.africapoa.fn.utils;
 
 import com.google.gson.*;
-import com.africapoa.fn.ds.PathType;
 
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 
 public class JsonUtil {
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeHierarchyAdapter(Number.class, new NumberTypeAdapter())
+            .setPrettyPrinting().create();
+
+    /**
+     * Returns the shared Gson configuration. Gson instances are immutable and thread safe, so
+     * one is built once and reused.
+     *
+     * @return the shared pretty-printing Gson
+     */
     public static Gson getGson(){
-        return new GsonBuilder()
-                .registerTypeHierarchyAdapter(Number.class, new NumberTypeAdapter())
-                .setPrettyPrinting().create();
+        return GSON;
     }
 
     private static class NumberTypeAdapter implements JsonDeserializer<Number>, JsonSerializer<Number> {
+        private static final double[] POWERS_OF_TEN = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
         @Override
         public Number deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
             String numberStr = json.getAsString();
             try {
-                return PathType.INTEGER.getPattern().matcher(numberStr).matches()
-                 ? Integer.parseInt(numberStr) : Double.parseDouble(numberStr) ;
+                return convert(classify(numberStr), numberStr, typeOfT);
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw new JsonSyntaxException("Expected " + typeOfT.getTypeName() + " but was " + numberStr, e);
+            }
+        }
+
+        /**
+         * Reads a number in one pass without a regex: whole numbers become the smallest of
+         * Integer and Long that holds them exactly, or a BigDecimal beyond that, and fractions
+         * become Doubles.
+         */
+        private static Number classify(String s) {
+            int len = s.length(), i = 0;
+            boolean negative = len > 0 && s.charAt(0) == '-';
+            if (negative) i++;
+            long mantissa = 0;
+            int digits = 0, fractionDigits = 0;
+            boolean fraction = false;
+            for (; i < len; i++) {
+                char c = s.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    if (digits < 18) mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0 || digits > 0) digits++;
+                    if (fraction) fractionDigits++;
+                } else if (c == '.' && !fraction) {
+                    fraction = true;
+                } else {
+                    return Double.parseDouble(s);
+                }
+            }
+            if (i == (negative ? 1 : 0)) throw new NumberFormatException("Empty number");
+            if (!fraction) {
+                if (digits > 18) return wholeBeyond18Digits(s);
+                long value = negative ? -mantissa : mantissa;
+                return value == (int) value ? (Number) (int) value : (Number) value;
+            }
+            if (digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+                // Both operands are exact doubles, so the division rounds correctly.
+                double value = mantissa / POWERS_OF_TEN[fractionDigits];
+                return negative ? -value : value;
+            }
+            return Double.parseDouble(s);
+        }
+
+        private static Number wholeBeyond18Digits(String s) {
+            try {
+                return Long.parseLong(s);
             } catch (NumberFormatException e) {
-                return Double.parseDouble(numberStr);
+                return new BigDecimal(s);
             }
         }
 
+        private static Number convert(Number n, String s, Type typeOfT) {
+            if (typeOfT == Integer.class || typeOfT == int.class) return intValueExact(n, s);
+            if (typeOfT == Long.class || typeOfT == long.class) return longValueExact(n, s);
+            if (typeOfT == Short.class || typeOfT == short.class) return new BigDecimal(s).shortValueExact();
+            if (typeOfT == Byte.class || typeOfT == byte.class) return new BigDecimal(s).byteValueExact();
+            if (typeOfT == Double.class || typeOfT == double.class) return n instanceof Double ? n : Double.parseDouble(s);
+            if (typeOfT == Float.class || typeOfT == float.class) return Float.parseFloat(s);
+            if (typeOfT == BigDecimal.class) return new BigDecimal(s);
+            if (typeOfT == BigInteger.class) return new BigDecimal(s).toBigIntegerExact();
+            if (typeOfT instanceof Class<?> && !((Class<?>) typeOfT).isInstance(n) && typeOfT != Number.class)
+                throw new JsonSyntaxException("Unable to read " + s + " as " + typeOfT.getTypeName());
+            return n;
+        }
+
+        private static Integer intValueExact(Number n, String s) {
+            return n instanceof Integer ? (Integer) n : new BigDecimal(s).intValueExact();
+        }
+
+        private static Long longValueExact(Number n, String s) {
+            return n instanceof Integer || n instanceof Long ? n.longValue() : new BigDecimal(s).longValueExact();
+        }
+
         @Override
         public JsonElement serialize(Number src, Type typeOfSrc, JsonSerializationContext context) {
             if (src instanceof Double || src instanceof Float) {
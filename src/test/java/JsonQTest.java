@@ -1,9 +1,38 @@
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.africapoa.fn.ds.CsvOptions;
+import com.africapoa.fn.ds.FnList;
 import com.africapoa.fn.ds.JsonQ;
+import com.africapoa.fn.ds.JsonQView;
+import com.africapoa.fn.ds.KeyValue;
+import com.africapoa.fn.ds.PathBatch;
+import com.africapoa.fn.ds.Patch;
+import com.africapoa.fn.ds.SharedJsonQ;
+import com.africapoa.fn.utils.JsonUtil;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -259,4 +288,728 @@ public class JsonQTest {
     }
 
 
+
+    @Test
+    public void testCompactDocument() {
+        String json = "{\"items\": [{\"name\": \"item1\", \"value\": 10}, {\"name\": \"item2\", \"value\": 20.5}]}";
+        JsonQ jsonQ = JsonQ.fromJsonCompact(json);
+
+        assertEquals("item2", jsonQ.get("$.items[1].name").val());
+        assertEquals(20.5, (Double) jsonQ.get("$.items[1].value").val());
+        assertEquals("item2", jsonQ.get("$.items[?(@.value > 15)].name").val());
+        assertEquals(JsonQ.fromJson(json).toString(), jsonQ.toString());
+
+        jsonQ.put("$.items[0].extra", "x");
+        assertEquals("x", jsonQ.str("$.items[0].extra"));
+        assertEquals(JsonQ.fromJson(json).compact().toString(), JsonQ.fromJsonCompact(json).toString());
+    }
+
+    @Test
+    public void testColumnarQueries() {
+        String json = "[{\"name\": \"a\", \"value\": 10, \"date\": \"2024-01-05\"},"
+                + "{\"name\": \"b\", \"value\": 20.5, \"active\": true},"
+                + "{\"name\": \"c\", \"value\": 30, \"date\": \"06-02-2024\"}]";
+        JsonQ rows = JsonQ.fromJson(json);
+        JsonQ columns = rows.columnar();
+
+        assertEquals(List.of(10, 20, 30), columns.intColumn("value"));
+        assertEquals(rows.stringColumn("name"), columns.stringColumn("name"));
+        assertEquals(rows.dateColumn("date"), columns.dateColumn("date"));
+        assertEquals(rows.select("name", "value").toString(), columns.select("name", "value").toString());
+        assertEquals(rows.where("value > ?", 15).toString(), columns.where("value > ?", 15).toString());
+        assertEquals("c", columns.where("value > ? and name = ?", 15, "c").str("name"));
+        assertEquals("b", columns.get("[?(@.active == true)].name").val());
+        assertEquals(rows.toString(), columns.toString());
+    }
+
+    @Test
+    public void testIndexedLookups() {
+        String json = "[{\"id\": 1, \"name\": \"a\"}, {\"id\": 2, \"name\": \"b\"}, {\"id\": 3, \"name\": \"c\"}]";
+        JsonQ plain = JsonQ.fromJson(json);
+        JsonQ jsonQ = JsonQ.fromJson(json).index("name").sortedIndex("id");
+
+        assertEquals("b", jsonQ.where("id = ?", 2).str("name"));
+        assertEquals(plain.where("id >= ?", 2).toString(), jsonQ.where("id >= ?", 2).toString());
+        assertEquals("c", jsonQ.get("[?(@.name == 'c')].name").val());
+        assertEquals(plain.get("[?(@.id < 3)].name").toString(), jsonQ.get("[?(@.id < 3)].name").toString());
+
+        jsonQ.add(JsonQ.fromJson("{\"id\": 4, \"name\": \"d\"}"));
+        assertEquals("d", jsonQ.where("name = ?", "d").str("name"));
+        jsonQ.put("[0].name", "z");
+        assertEquals(1, jsonQ.where("name = ?", "z").asInt("id"));
+        assertTrue(jsonQ.where("name = ?", "a").isEmpty());
+
+        List<Person> people = List.of(new Person("Ann", 30, new String[0]), new Person("Bob", 25, new String[0]),
+                new Person("Cid", 27, new String[0]));
+        JsonQ pojos = JsonQ.fromPOJO(people).index("name").sortedIndex("age");
+        assertEquals(25, pojos.where("name = ?", "Bob").asInt("age"));
+        assertEquals(List.of("Bob", "Cid"), pojos.getStrings("[?(@.age < 28)].name"));
+        assertEquals(JsonQ.fromPOJO(people).where("age >= ?", 27).toString(), pojos.where("age >= ?", 27).toString());
+    }
+
+    @Test
+    public void testIndexFollowsWritesThroughSubDocuments() {
+        JsonQ rows = JsonQ.fromJson("[{\"n\": \"a\", \"id\": 1}, {\"n\": \"b\", \"id\": 2}]").index("n").sortedIndex("id");
+        assertEquals(1, rows.where("n = ?", "a").asInt("id"));
+
+        rows.get("[0]").put("n", "z");
+        assertEquals(1, rows.where("n = ?", "z").asInt("id"));
+        assertTrue(rows.where("n = ?", "a").isEmpty());
+        rows.get(".").add(JsonQ.fromJson("{\"n\": \"c\", \"id\": 3}"));
+        assertEquals(3, rows.where("n = ?", "c").asInt("id"));
+
+        for (int i = 0; i < 20; i++) {
+            rows.put("[" + i % 3 + "].id", 10 + i);
+            assertEquals(10 + i, rows.where("id = ?", 10 + i).asInt("id"));
+            assertEquals(10 + i, rows.asInt("[?(@.id >= " + (10 + i) + ")].id"));
+        }
+        assertEquals(List.of(28, 29), rows.where("id >= ?", 28).integers("[*].id"));
+        assertEquals("c", rows.where("id < ?", 28).str("n"));
+    }
+
+    @Test
+    public void testFirstMatchShortCircuits() {
+        String json = "{\"items\": [{\"name\": \"item1\", \"value\": 10}, {\"name\": \"item2\", \"value\": 20},"
+                + " {\"name\": \"item3\", \"value\": 30, \"tags\": [\"x\", \"y\"]}]}";
+        JsonQ jsonQ = JsonQ.fromJson(json);
+
+        assertEquals("item2", jsonQ.str("$.items[?(@.value > 15)].name"));
+        assertEquals(jsonQ.getStrings("items..name").get(0), jsonQ.first("items..name", o -> o));
+        assertEquals(20, jsonQ.asInt("$.items[?(@.name == 'item2')].value"));
+        assertEquals("y", jsonQ.str("$.items[2].tags[1]"));
+        assertNull(jsonQ.first("$.items[?(@.value > 50)].name", o -> o));
+        assertEquals("", jsonQ.str("$.missing"));
+    }
+
+    @Test
+    public void testIndexedDeepScan() {
+        String json = "{\"a\": {\"name\": \"x\", \"b\": [{\"name\": \"y\"}, {\"name\": \"y\"}]}, \"c\": {\"name\": {\"first\": \"z\"}}}";
+        JsonQ plain = JsonQ.fromJson(json);
+        JsonQ jsonQ = JsonQ.fromJson(json).indexDeepScans();
+
+        assertEquals(plain.get("a..name").toString(), jsonQ.get("a..name").toString());
+        assertEquals(plain.get("$..name").toString(), jsonQ.get("$..name").toString());
+        assertEquals(4, jsonQ.getStrings("$..name").size());
+        assertEquals("z", jsonQ.get("c..name.first").val());
+        jsonQ.put("$.c.name.first", "w");
+        assertEquals("w", jsonQ.get("c..name.first").val());
+    }
+
+    @Test
+    public void testPojoView() {
+        Person alice = new Person("Alice", 31, new String[]{"admin"});
+        Person bob = new Person("Bob", 25, new String[0]);
+        JsonQ jsonQ = JsonQ.fromPOJO(List.of(alice, bob));
+
+        assertEquals("Alice", jsonQ.str("[0].name"));
+        assertEquals(25, jsonQ.asInt("[1].age"));
+        assertEquals("Bob", jsonQ.where("age < ?", 30).str("name"));
+        assertEquals("admin", jsonQ.get("[?(@.age > 30)].roles[0]").val());
+        assertEquals(gson.toJson(List.of(alice, bob)).replaceAll("\\s", ""),
+                jsonQ.toString().replaceAll("\\s", "").replace(".0", ""));
+
+        JsonQ single = JsonQ.fromPOJO(bob);
+        single.put("nickname", "B");
+        assertEquals("B", single.str("nickname"));
+        assertNull(bob.nickname);
+
+        alice.address = new Address("Lagos");
+        JsonQ nested = JsonQ.fromPOJO(alice);
+        nested.put("address.city", "Accra");
+        assertEquals("Accra", nested.str("address.city"));
+        JsonQ list = JsonQ.fromPOJO(List.of(alice, bob));
+        list.put("[0].address.city", "Kumasi");
+        list.put("[1].name", "Rob");
+        assertEquals("Kumasi", list.str("[0].address.city"));
+        assertEquals("Rob", list.str("[1].name"));
+        JsonQ map = JsonQ.fromPOJO(Map.of("lead", alice));
+        map.put("lead.address.city", "Tema");
+        assertEquals("Tema", map.str("lead.address.city"));
+        assertEquals("Lagos", alice.address.city);
+        assertEquals("Bob", bob.name);
+    }
+
+    @SuppressWarnings("unused")
+    private static class Person {
+        private final String name;
+        private final int age;
+        private final String[] roles;
+        private transient String cached = "skip";
+        private String nickname;
+        private Address address;
+
+        Person(String name, int age, String[] roles) {
+            this.name = name;
+            this.age = age;
+            this.roles = roles;
+        }
+    }
+
+    private static class Address {
+        private final String city;
+
+        Address(String city) { this.city = city; }
+    }
+
+    @Test
+    public void testGetAllSharesTraversal() {
+        String json = "{\"person\": {\"name\": \"John\", \"address\": {\"city\": \"New York\", \"zip\": \"10001\"}},"
+                + " \"items\": [{\"value\": 10}, {\"value\": 20}]}";
+        JsonQ jsonQ = JsonQ.fromJson(json);
+        String[] paths = {"$.person.name", "$.person.address.city", "$.person.address.zip", "$.items[*].value",
+                "$.items[?(@.value > 15)].value", "$.missing", "."};
+
+        Map<String, JsonQ> results = jsonQ.getAll(PathBatch.of(paths));
+        assertEquals(List.of(paths), List.copyOf(results.keySet()));
+        for (String path : paths) assertEquals(jsonQ.get(path).toString(), results.get(path).toString(), path);
+
+        int[] reads = {0};
+        Map<String, Object> a = new HashMap<>(Map.of("b", Map.of("x", 1.0, "y", 2.0))) {
+            @Override
+            public Object get(Object key) {
+                reads[0]++;
+                return super.get(key);
+            }
+        };
+        Map<String, JsonQ> shared = JsonQ.fromPOJO(Map.of("a", a)).getAll(PathBatch.of("$.a.b.x", "$.a.b.y"));
+        assertEquals(1, shared.get("$.a.b.x").asInt());
+        assertEquals(2, shared.get("$.a.b.y").asInt());
+        assertEquals(1, reads[0]);
+    }
+
+    @Test
+    public void testPersistentDocument() {
+        JsonQ original = JsonQ.fromJson("{\"store\": {\"name\": \"Duka\", \"books\": [{\"title\": \"A\"}, {\"title\": \"B\"}]}}");
+        JsonQ v1 = original.persistent();
+        JsonQ v2 = v1.with("$.store.books[1].title", "C").with("$.store.open", true);
+        JsonQ v3 = v2.without("$.store.books[0]");
+
+        assertEquals("B", v1.str("$.store.books[1].title"));
+        assertEquals("C", v2.str("$.store.books[1].title"));
+        assertEquals(Boolean.TRUE, v2.get("$.store.open").val());
+        assertEquals(JsonQ.fromJson("{\"name\":\"Duka\",\"books\":[{\"title\":\"C\"}],\"open\":true}").toString(),
+                v3.get("$.store").toString());
+        assertEquals(original.toString(), v1.toString());
+        assertEquals(JsonQ.fromJson("{\"a\":{\"b\":[\"x\"]}}").toString(), JsonQ.fromJson("{}").with("a.b[0]", "x").toString());
+        assertThrows(UnsupportedOperationException.class, () -> v1.put("store.name", "Soko"));
+
+        JsonQ numbers = JsonQ.fromJson("[]").persistent();
+        JsonQ snapshot = numbers.snapshot();
+        for (int i = 0; i < 2000; i++) numbers = numbers.plus(i);
+        JsonQ edited = numbers.with("[1500]", -1).without("[3]");
+        assertTrue(snapshot.isEmpty());
+        assertEquals(2000, numbers.<List<?>>val().size());
+        assertEquals(1500, numbers.<List<?>>val().get(1500));
+        assertEquals(-1, edited.<List<?>>val().get(1499));
+        assertEquals(4, edited.<List<?>>val().get(3));
+
+        JsonQ wide = JsonQ.fromJson("{}");
+        for (int i = 0; i < 200; i++) wide = wide.with("k" + i, i);
+        for (int i = 0; i < 150; i++) wide = wide.without("k" + i);
+        assertEquals(50, wide.<Map<?, ?>>val().size());
+        assertEquals("k150", wide.<Map<String, ?>>val().keySet().iterator().next());
+        assertEquals(199, wide.get("k199").<Integer>val());
+    }
+
+    @Test
+    public void testApplyPatch() {
+        JsonQ jsonQ = JsonQ.fromJson("{\"store\": {\"name\": \"Duka\", \"books\": [{\"title\": \"A\"}, {\"title\": \"B\"}]}}");
+        Patch patch = Patch.fromJson("[{\"op\": \"replace\", \"path\": \"/store/name\", \"value\": \"Soko\"},"
+                + " {\"op\": \"add\", \"path\": \"/store/books/-\", \"value\": {\"title\": \"C\"}},"
+                + " {\"op\": \"remove\", \"path\": \"/store/books/0\"},"
+                + " {\"op\": \"move\", \"from\": \"/store/name\", \"path\": \"/owner\"}]");
+        assertTrue(jsonQ.apply(patch));
+        assertEquals("[B, C]", jsonQ.getStrings("$.store.books[*].title").toString());
+        assertEquals("Soko", jsonQ.str("owner"));
+        assertTrue(jsonQ.get("store.name").isEmpty());
+
+        String before = jsonQ.toString();
+        Patch failing = Patch.create().add("$.store.books[0].year", 2001).remove("/store/missing").atomic();
+        assertFalse(jsonQ.apply(failing));
+        assertEquals(before, jsonQ.toString());
+
+        assertFalse(jsonQ.apply(Patch.create().add("$.store.books[0].year", 2001).remove("/store/missing")));
+        assertEquals(2001, jsonQ.get("store.books[0].year").<Integer>val());
+
+        assertFalse(jsonQ.apply(Patch.create().move("/owner", "/store/books/9")));
+        assertEquals("Soko", jsonQ.str("owner"));
+        assertFalse(JsonQ.fromJson("42").apply(Patch.create().add("/a", 1)));
+        assertFalse(JsonQ.fromJson("{}").without("$").apply(Patch.create().remove("/a").atomic()));
+    }
+
+    @Test
+    public void testSharedDocument() throws Exception {
+        SharedJsonQ shared = SharedJsonQ.of(JsonQ.fromJson("{\"hits\": 0, \"day\": \"2024-03-01\"}"));
+        JsonQ first = shared.get();
+        Thread[] writers = new Thread[4];
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 250; i++) {
+                        shared.update(doc -> doc.with("hits", doc.get("hits").<Number>val().intValue() + 1));
+                        assertEquals(1, shared.get().dateColumn("day").size());
+                    }
+                } catch (Throwable e) {errors.add(e);}
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) writer.join();
+        assertTrue(errors.isEmpty(), errors.toString());
+        assertEquals(1000, shared.get().asInt("hits"));
+        assertEquals(0, first.asInt("hits"));
+
+        try (SharedJsonQ reloaded = shared.reloadEvery(() -> JsonQ.fromJson("{\"hits\": -1}"), 1, TimeUnit.HOURS)) {
+            assertTrue(reloaded.reload());
+            assertEquals(-1, reloaded.get().asInt("hits"));
+        }
+    }
+
+    @Test
+    public void testAggregates() {
+        String json = "[{\"region\": \"east\", \"amount\": 10}, {\"region\": \"west\", \"amount\": 5.5},"
+                + " {\"region\": \"east\", \"amount\": 30}, {\"region\": \"north\", \"amount\": \"n/a\"},"
+                + " {\"amount\": 100}]";
+        for (JsonQ jsonQ : new JsonQ[]{JsonQ.fromJson(json), JsonQ.fromJson(json).columnar()}) {
+            assertEquals(145.5, jsonQ.sum("$[*].amount"));
+            assertEquals(36.375, jsonQ.avg("$[*].amount"));
+            assertEquals(5.5, jsonQ.min("$[*].amount"));
+            assertEquals(100, jsonQ.max("$[*].amount"));
+            assertEquals(20, jsonQ.percentile("$[*].amount", 50));
+            assertEquals(4, jsonQ.count("$[*].region"));
+
+            Map<String, Double> sums = jsonQ.groupBy("region", "amount", JsonQ.Aggregate.SUM);
+            assertEquals(Map.of("east", 40.0, "west", 5.5, "north", 0.0), sums);
+            assertEquals(List.of("east", "west", "north"), List.copyOf(sums.keySet()));
+            assertEquals(2.0, jsonQ.groupBy("region", "amount", JsonQ.Aggregate.COUNT).get("east"));
+        }
+        assertTrue(Double.isNaN(JsonQ.fromJson("[]").avg("$[*].amount")));
+        assertEquals(6, JsonQ.fromJson("[{\"n\": 1}, {\"n\": 2}, {}, {\"n\": 3}]").columnar().sum("[*].n"));
+    }
+
+    @Test
+    public void testOrderByAndLimit() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\": ").append(i).append(", \"score\": ").append((i * 37) % 101)
+                    .append(", \"team\": \"").append((char) ('a' + i % 3)).append("\"}");
+        }
+        json.append(",{\"id\": 500}]");
+        JsonQ jsonQ = JsonQ.fromJson(json.toString());
+
+        List<Integer> top = jsonQ.orderBy("score", false).limit(5).integers("[*].id");
+        List<Integer> sortedTop = jsonQ.orderBy("score desc").integers("[*].id").subList(0, 5);
+        assertEquals(sortedTop, top);
+        assertEquals(List.of(100, 100, 100, 100, 100),
+                jsonQ.orderBy("score", false).limit(5).integers("[*].score"));
+        assertEquals(500, jsonQ.orderBy("score").integers("[*].id").get(500));
+
+        List<Integer> indexed = jsonQ.sortedIndex("score").orderBy("score", false).limit(5).integers("[*].id");
+        assertEquals(top, indexed);
+        assertEquals(jsonQ.orderBy("score").integers("[*].id"), JsonQ.fromJson(json.toString()).orderBy("score").integers("[*].id"));
+
+        JsonQ byTeam = jsonQ.orderBy("team desc", "score", "id").limit(3);
+        assertEquals("[c, c, c]", byTeam.getStrings("[*].team").toString());
+        assertEquals(jsonQ.orderBy("team desc", "score", "id").integers("[*].id").subList(0, 3), byTeam.integers("[*].id"));
+        List<Integer> scores = byTeam.integers("[*].score");
+        assertTrue(scores.get(0) <= scores.get(1) && scores.get(1) <= scores.get(2));
+
+        JsonQ people = JsonQ.fromPOJO(List.of(new Person("Ann", 30, new String[0]), new Person("Bob", 25, new String[0]),
+                new Person("Cid", 27, new String[0])));
+        assertEquals(List.of("Bob", "Cid", "Ann"), people.orderBy("age").getStrings("[*].name"));
+        assertEquals(List.of("Ann"), people.orderBy("age desc").limit(1).getStrings("[*].name"));
+
+        JsonQ growing = JsonQ.fromJson("[{\"id\": 2}, {\"id\": 1}]");
+        JsonQ ordered = growing.orderBy("id");
+        assertEquals(List.of(1, 2), ordered.integers("[*].id"));
+        growing.add(JsonQ.fromJson("{\"id\": 0}"));
+        assertEquals(0, ordered.limit(1).asInt("[0].id"));
+        assertEquals(List.of(0, 1, 2), ordered.integers("[*].id"));
+        growing.put("[2].id", 5);
+        assertEquals(List.of(1, 2, 5), ordered.integers("[*].id"));
+    }
+
+    @Test
+    public void testParallelQueries() {
+        StringBuilder json = new StringBuilder("{\"rows\": [");
+        for (int i = 0; i < 20000; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\": ").append(i).append(", \"tag\": \"t").append(i % 7).append("\"}");
+        }
+        json.append("]}");
+        String path = "$.rows[?(@.id > 100 && @.tag == 't3')].id";
+        JsonQ sequential = JsonQ.fromJson(json.toString());
+        JsonQ parallel = JsonQ.fromJson(json.toString()).parallel(1000);
+
+        assertEquals(sequential.integers(path), parallel.integers(path));
+        assertEquals(sequential.integers("$.rows[*].id"), parallel.integers("$.rows[*].id"));
+        assertEquals(sequential.sum(path), parallel.sum(path));
+        assertEquals(sequential.integers(path).get(0), parallel.asInt(path));
+    }
+
+    @Test
+    public void testQueryAllFiles(@TempDir Path dir) throws Exception {
+        Files.createDirectories(dir.resolve("nested"));
+        for (int i = 0; i < 12; i++) {
+            Path file = dir.resolve(i % 2 == 0 ? String.format("s%02d.json", i) : String.format("nested/s%02d.json", i));
+            Files.write(file, ("{\"id\": " + i + ", \"tags\": [\"a\", \"\u00e9" + i + "\"]}").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(dir.resolve("broken.json"), "{oops".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("notes.txt"), "{}".getBytes(StandardCharsets.UTF_8));
+
+        List<KeyValue<Path, JsonQ>> top = JsonQ.queryAll(dir, "*.json", "$.id").list();
+        assertEquals(List.of(0, 2, 4, 6, 8, 10), top.stream().map(kv -> kv.value.asInt()).collect(Collectors.toList()));
+        assertEquals(dir.resolve("s04.json"), top.get(2).key);
+
+        List<KeyValue<Path, JsonQ>> tags = JsonQ.queryAll(dir, "**.json", "$.tags[1]", 3, false).list();
+        assertEquals(12, tags.size());
+        for (KeyValue<Path, JsonQ> tag : tags) {
+            String name = tag.key.getFileName().toString();
+            assertEquals("\u00e9" + Integer.parseInt(name.substring(1, 3)), tag.value.str());
+        }
+    }
+
+    @Test
+    public void testFileInputParsesUtf8Bytes(@TempDir Path dir) throws Exception {
+        String json = "\ufeff{\"name\": \"Wanjir\u0169 \\u00e9\\ud83d\\ude00\", \"esc\": \"a\\\"b\\\\c\\n\","
+                + " \"n\": [0, -0, 12, -3.5, 1e3, 12345678901234567890], \"ok\": true, \"none\": null, \"empty\": {}}";
+        Path file = dir.resolve("doc.json");
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        JsonQ jsonQ = JsonQ.fromIO(file.toFile());
+        assertEquals(JsonQ.fromJson(json.substring(1)).toString(), jsonQ.toString());
+        assertEquals("Wanjir\u0169 \u00e9\ud83d\ude00", jsonQ.str("name"));
+
+        Path lenient = dir.resolve("lenient.json");
+        Files.write(lenient, "{'name': 'single quoted'}".getBytes(StandardCharsets.UTF_8));
+        assertEquals("single quoted", JsonQ.fromIO(lenient.toFile()).str("name"));
+
+        StringBuilder big = new StringBuilder("[");
+        for (int i = 0; i < 60000; i++) big.append(i == 0 ? "" : ",").append("{\"id\": ").append(i).append(", \"v\": \"\u00e9\"}");
+        Path large = dir.resolve("large.json");
+        Files.write(large, big.append("]").toString().getBytes(StandardCharsets.UTF_8));
+        JsonQ loaded = JsonQ.fromIO(large.toFile());
+        assertEquals(59999, loaded.asInt("[59999].id"));
+        assertEquals("\u00e9", loaded.str("[20000].v"));
+    }
+    @Test
+    public void testBinarySnapshot(@TempDir Path dir) throws Exception {
+        String json = "{\"name\": \"Wanjir\u0169\", \"n\": [0, -7, 3.25, 9007199254740993, 1e300], \"ok\": true,"
+                + " \"none\": null, \"nested\": {\"a\": [{\"b\": 1}, {\"b\": 2}], \"empty\": {}, \"list\": []}}";
+        JsonQ original = JsonQ.fromJson(json);
+        Path file = dir.resolve("doc.jqb");
+        assertTrue(original.writeBinary(file));
+        assertTrue(Files.size(file) < json.length());
+
+        JsonQ loaded = JsonQ.readBinary(file);
+        assertEquals(original.toString(), loaded.toString());
+        assertEquals(2, loaded.asInt("$.nested.a[1].b"));
+        assertEquals(original.integers("$..b"), loaded.integers("$..b"));
+        assertEquals(-7.0, (Double) loaded.get("n[1]").val());
+        assertEquals(original.toString(), loaded.compact().toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertTrue(loaded.writeBinary(bytes));
+        JsonQ copy = JsonQ.readBinary(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(original.toString(), copy.toString());
+        assertTrue(JsonQ.readBinary(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).isEmpty());
+    }
+    @Test
+    public void testFromURLRevalidates() throws Exception {
+        byte[] json = "{\"rates\": {\"USD\": 129.5}}".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(json);
+        }
+        AtomicInteger full = new AtomicInteger();
+        AtomicInteger notModified = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/rates", exchange -> {
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                full.incrementAndGet();
+                assertEquals("gzip, deflate", exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, gzipped.size());
+                exchange.getResponseBody().write(gzipped.toByteArray());
+            }
+            exchange.close();
+        });
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            assertEquals(129.5, (Double) JsonQ.fromURL(base + "/rates").get("rates.USD").val());
+            assertEquals(129.5, (Double) JsonQ.fromURL(base + "/rates").get("rates.USD").val());
+            assertEquals(129.5, (Double) JsonQ.fromURLAsync(base + "/rates").get(10, TimeUnit.SECONDS).get("rates.USD").val());
+            assertEquals(1, full.get());
+            assertEquals(2, notModified.get());
+            assertTrue(JsonQ.fromURL(base + "/missing").isEmpty());
+            assertTrue(JsonQ.fromURLAsync(base + "/missing").get(10, TimeUnit.SECONDS).isEmpty());
+        } finally {
+            server.stop(0);
+        }
+    }
+    @Test
+    public void testNumberDecodingHonoursTargetType() {
+        Gson gson = JsonUtil.getGson();
+        assertSame(gson, JsonUtil.getGson());
+        assertEquals(9007199254740993L, gson.fromJson("9007199254740993", Long.class));
+        assertEquals(-42, gson.fromJson("-42", Integer.class));
+        assertEquals(0.1, gson.fromJson("0.1", Double.class));
+        assertEquals(new BigDecimal("3.14159265358979323846"), gson.fromJson("3.14159265358979323846", BigDecimal.class));
+
+        Number[] numbers = gson.fromJson("[7, -2147483649, 2.5, 1e3, 123456789012345678901, 0.30000000000000004]", Number[].class);
+        assertEquals(7, numbers[0]);
+        assertEquals(-2147483649L, numbers[1]);
+        assertEquals(2.5, numbers[2]);
+        assertEquals(1000.0, numbers[3]);
+        assertEquals(new BigDecimal("123456789012345678901"), numbers[4]);
+        assertEquals(0.30000000000000004, numbers[5]);
+        assertThrows(com.google.gson.JsonSyntaxException.class, () -> gson.fromJson("2.5", Integer.class));
+
+        JsonQ result = JsonQ.fromJson("{\"age\": 30}");
+        assertEquals(30, (Double) result.get("age").val());
+    }
+    @Test
+    public void testStreamingJsonOutput(@TempDir Path dir) throws Exception {
+        JsonQ doc = JsonQ.fromJson("{\"name\": \"Wanjir\u0169\", \"tags\": [\"a\", null, \"<b>\"], \"n\": 2.5}");
+        StringWriter pretty = new StringWriter();
+        assertTrue(doc.writeJson(pretty, true));
+        assertEquals(doc.toString(), pretty.toString());
+        StringWriter compact = new StringWriter();
+        assertTrue(doc.writeJson(compact, false));
+        assertEquals("{\"name\":\"Wanjir\u0169\",\"tags\":[\"a\",null,\"\\u003cb\\u003e\"],\"n\":2.5}", compact.toString());
+        Path file = dir.resolve("doc.json");
+        assertTrue(doc.writeJson(file, false));
+        assertEquals(doc.toString(), JsonQ.fromIO(file.toFile()).toString());
+
+        FnList<Object> rows = FnList.range(0, 3).map(i -> i == 1 ? null : Map.of("id", i));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertTrue(rows.writeJson(bytes, false));
+        assertEquals("[{\"id\":0},{\"id\":2}]", bytes.toString(StandardCharsets.UTF_8));
+        StringWriter list = new StringWriter();
+        assertTrue(FnList.from(List.of("x", "y")).writeJson(list, true));
+        assertEquals(FnList.from(List.of("x", "y")).toJson(), list.toString());
+    }
+    @Test
+    public void testMaintainedViews() {
+        JsonQ orders = JsonQ.fromJson("[{\"id\": 1, \"status\": \"open\", \"amount\": 10},"
+                + " {\"id\": 2, \"status\": \"closed\", \"amount\": 20}, {\"id\": 3, \"status\": \"open\", \"amount\": 5}]");
+        JsonQView open = orders.view("$[?(@.status == 'open')].amount");
+        JsonQView ids = orders.view("$..id");
+        assertEquals(15.0, open.sum());
+        assertEquals(2, open.count());
+        assertEquals(5.0, open.min());
+
+        orders.add(new LinkedHashMap<>(Map.of("id", 4, "status", "open", "amount", 40)));
+        assertEquals(55.0, open.sum());
+        assertEquals(40.0, open.max());
+        assertEquals(orders.sum("$[?(@.status == 'open')].amount"), open.sum());
+        assertEquals(4, ids.count());
+
+        orders.put("[?(@.id == 3)].status", "closed");
+        assertEquals(50.0, open.sum());
+        assertEquals(10.0, open.min());
+        assertEquals(orders.get("$[?(@.status == 'open')].amount").toString(), open.get().toString());
+
+        orders.put("[?(@.id == 4)].amount", 1);
+        assertEquals(1.0, open.min());
+        assertEquals(11.0, open.sum());
+        assertEquals(5.5, open.avg());
+
+        orders.apply(Patch.create().remove("/0"));
+        assertEquals(1.0, open.sum());
+        assertEquals(3, ids.count());
+
+        orders.get("[2]").put("status", "closed");
+        assertEquals(0, open.count());
+        orders.get("[?(@.id == 2)]").put("status", "open");
+        assertEquals(20.0, open.sum());
+        assertEquals(20.0, open.get().<Number>val().doubleValue());
+
+        open.close();
+        orders.add(Map.of("id", 5, "status", "open", "amount", 100));
+        assertEquals(20.0, open.sum());
+        assertEquals(4, ids.count());
+    }
+    @Test
+    public void testStructuralDiff() {
+        JsonQ before = JsonQ.fromJson("{\"feed\": \"rates\", \"rows\": [{\"id\": 1, \"v\": 10}, {\"id\": 2, \"v\": 20},"
+                + " {\"id\": 3, \"v\": 30}], \"meta\": {\"a/b\": 1, \"old\": true}}");
+        JsonQ same = JsonQ.fromJson("{\"meta\": {\"old\": true, \"a/b\": 1.0}, \"rows\": [{\"v\": 10, \"id\": 1}, {\"id\": 2, \"v\": 20},"
+                + " {\"id\": 3, \"v\": 30}], \"feed\": \"rates\"}");
+        assertTrue(before.equalsStructurally(same));
+        assertEquals(before.contentHash(), same.contentHash());
+        assertEquals(0, before.diff(same).size());
+
+        JsonQ after = JsonQ.fromJson("{\"feed\": \"rates\", \"rows\": [{\"id\": 1, \"v\": 10}, {\"id\": 9, \"v\": 90},"
+                + " {\"id\": 2, \"v\": 20}, {\"id\": 3, \"v\": 31}], \"meta\": {\"a/b\": 2, \"new\": [1]}}");
+        assertFalse(before.equalsStructurally(after));
+        assertNotEquals(before.contentHash(), after.contentHash());
+        Patch patch = before.diff(after);
+        assertEquals(5, patch.size());
+        assertTrue(patch.toString().contains("/meta/a~1b"));
+        assertTrue(before.apply(Patch.fromJson(patch.toString())));
+        assertTrue(before.equalsStructurally(after));
+        assertEquals(after.toString(), before.toString());
+
+        JsonQ shrunk = JsonQ.fromJson("{\"feed\": \"rates\", \"rows\": [], \"meta\": {}}");
+        assertTrue(before.apply(before.diff(shrunk)));
+        assertTrue(before.equalsStructurally(shrunk));
+        assertThrows(IllegalArgumentException.class, () -> shrunk.diff(JsonQ.fromJson("[1]")));
+
+        JsonQ doc = JsonQ.fromJson("{\"a\": {\"x\": 1}}");
+        JsonQ edited = JsonQ.fromJson("{\"a\": {\"x\": 5}}");
+        long hash = doc.contentHash();
+        assertFalse(doc.equalsStructurally(edited));
+        doc.get("a").put("x", 5);
+        assertNotEquals(hash, doc.contentHash());
+        assertTrue(doc.equalsStructurally(edited));
+        assertEquals(edited.contentHash(), doc.contentHash());
+
+        JsonQ snapshot = SharedJsonQ.of(JsonQ.fromJson(after.toString())).get();
+        assertTrue(IntStream.range(0, 64).parallel().allMatch(i -> snapshot.equalsStructurally(after)
+                && snapshot.contentHash() == after.contentHash()));
+    }
+
+    @Test
+    public void testTextIndex() {
+        StringBuilder json = new StringBuilder("[");
+        String[] names = {"Alice Smith", "Bob Smithers", "Carol Jones", "Dan Smyth", "Eve Blacksmith"};
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(i).append(",\"name\":\"").append(names[i % names.length]).append(' ').append(i).append("\"}");
+        }
+        JsonQ plain = JsonQ.fromJson(json.append(']').toString());
+        JsonQ indexed = JsonQ.fromJson(json.toString()).textIndex("name");
+        String[] filters = {"@.name ~ '.*Smith.*'", "@.name ~ '.*smith 1\\d+'", "@.name ~ 'Bob.*'",
+                "@.name ~ '.*(Jones|Smyth).*'", "@.name ~ '.*'", "@.name ~ 'Zed.*'", "@.name ~ '.*Sm.th\\s4.*'",
+                "@.name ~ '.*Smith.*' && @.id < 50"};
+        for (String filter : filters) {
+            String query = "$[?(" + filter + ")].id";
+            assertEquals(plain.integers(query), indexed.integers(query), filter);
+        }
+        assertEquals(List.of(4, 9), indexed.integers("$[?(@.name ~ '.*Blacksmith \\d')].id"));
+
+        indexed.add(Map.of("id", 200, "name", "Zed Goldsmith"));
+        assertEquals(200, ((Number) indexed.get("$[?(@.name ~ '.*smith.*' && @.name ~ 'Zed.*')].id").val()).intValue());
+    }
+    @Test
+    public void testBatchFilterOnColumns() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 300; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(i).append(",\"price\":").append(i % 17 * 1.5)
+                    .append(",\"big\":").append(i * 10_000_000_000L)
+                    .append(",\"city\":\"").append(i % 3 == 0 ? "Nairobi" : "Accra").append('"')
+                    .append(i % 7 == 0 ? "" : ",\"vip\":" + (i % 2 == 0)).append('}');
+        }
+        String data = json.append(']').toString();
+        JsonQ rows = JsonQ.fromJson(data), columns = JsonQ.fromJson(data).columnar();
+        String[] filters = {"@.price > 12", "@.price <= 3 || @.id >= 290", "@.price != 6",
+                "(@.city == 'Nairobi' || @.vip == true) && @.id < 100", "@.vip == false || (@.price == 0 && @.id > 200)",
+                "@.missing > 1 || @.id == 5", "@.city ~ 'Acc.*' && @.price > 20", "@.id == 1 || @.id == 2 && @.id == 3",
+                "@.price < 5 || @.id > 250 && @.city == 'Accra'", "@.id < 10 && @.price > 3 || @.id == 299 && @.vip == true"};
+        for (String filter : filters) {
+            String path = "$[?(" + filter + ")].id";
+            assertEquals(rows.integers(path), columns.integers(path), filter);
+            assertEquals(rows.where(filter).integers("[*].id"), columns.where(filter).integers("[*].id"), filter);
+        }
+        assertEquals(List.of(0, 299), columns.integers("$[?(@.big >= 2990000000000 || @.big < 10000000000)].id"));
+        assertTrue(rows.where("id == ? || id == ? && id == ?", 1, 2, 3).isEmpty());
+        assertTrue(columns.where("id == ? || id == ? && id == ?", 1, 2, 3).isEmpty());
+        assertEquals(299, columns.where("big > ?", 2980000000000L).asInt("id"));
+
+        assertTrue(columns.select("id", "nope").where("nope == 'x'").isEmpty());
+        assertTrue(columns.select("id", "nope").get("$[?(@.nope != 'x' || @.id == 1)].id").isEmpty());
+        String csv = "id,note,amt\n1,,5\n2,,7\n";
+        JsonQ blank = JsonQ.fromCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), CsvOptions.csv().columnar(true));
+        assertTrue(blank.get("[?(@.note == 'x')].id").isEmpty());
+        assertEquals(2, blank.asInt("[?(@.amt > 5)].id"));
+    }
+
+    @Test
+    public void testDateExtraction() {
+        JsonQ rows = JsonQ.fromJson("[{\"day\": \"2024-01-05\"}, {\"day\": \"06-02-2024\"}, {\"day\": \"2024-02-30\"},"
+                + " {\"day\": \"soon\"}, {\"day\": 7}, {}, {\"day\": \"1969-12-31\"}]");
+        List<String> malformed = new ArrayList<>();
+        int[] days = rows.epochDays("[*].day", malformed);
+        assertArrayEquals(new int[]{(int) LocalDate.of(2024, 1, 5).toEpochDay(), (int) LocalDate.of(2024, 2, 6).toEpochDay(),
+                (int) LocalDate.of(2024, 3, 1).toEpochDay(), -1}, days);
+        assertEquals(List.of("soon", "7.0"), malformed);
+        assertEquals(4, rows.dateColumn("day").size());
+        assertEquals(rows.dateColumn("day"), rows.columnar().dateColumn("day"));
+        assertEquals(1, JsonQ.fromJson("[{\"d\": \"2024-02-30\"}, {\"d\": \"300000000-01-01\"}, {\"d\": \"12024-01-01\"}]")
+                .dateColumn("d").size());
+        assertEquals(List.of(LocalDate.of(12024, 1, 1)), JsonQ.fromJson("[\"12024-01-01\"]").localDates("[*]", null, "u-MM-dd"));
+
+        JsonQ feed = JsonQ.fromJson("[\"05/01/2024\", \"20240105\", \"5 Jan 2024\", \"2024-01-05\"]");
+        LocalDate fifth = LocalDate.of(2024, 1, 5);
+        assertEquals(List.of(fifth, fifth, fifth), feed.localDates("[*]", null, "dd/MM/yyyy", "yyyyMMdd", "d MMM uuuu"));
+        List<String> rejected = new ArrayList<>();
+        assertEquals(List.of(fifth), feed.localDates("[*]", rejected, "uuuu-MM-dd"));
+        assertEquals(3, rejected.size());
+        assertThrows(IllegalArgumentException.class, () -> feed.epochDays("[*]", null, "yyyy-MM-dd{"));
+    }
+    @Test
+    public void testCsvImportExport(@TempDir Path dir) throws Exception {
+        String csv = "\uFEFFid,name,score,active,zip,note\r\n"
+                + "1,Ann,9.5,true,00123,\"says \"\"hi\"\", twice\"\r\n"
+                + "2,Bob,,false,00456,\"two\nlines\"\n"
+                + "\n"
+                + "3,\"\",-7e2,TRUE,789";
+        Path file = dir.resolve("people.csv");
+        Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+        JsonQ rows = JsonQ.fromCsv(file, CsvOptions.csv());
+        JsonQ columns = JsonQ.fromCsv(file, CsvOptions.csv().columnar(true));
+
+        assertEquals(3, rows.count("[*]"));
+        assertEquals(List.of(1, 2, 3), rows.integers("[*].id"));
+        assertEquals("says \"hi\", twice", rows.get("[0].note").val());
+        assertEquals("two\nlines", rows.get("[1].note").val());
+        assertEquals("00123", rows.get("[0].zip").val());
+        assertEquals("00456", rows.get("[1].zip").val());
+        assertEquals(789.0, rows.get("[2].zip").val());
+        assertEquals(-700.0, rows.get("[2].score").val());
+        assertEquals("", ((Map<?, ?>) rows.get("[2]").val()).get("name"));
+        assertEquals(Boolean.TRUE, rows.get("[2].active").val());
+        assertFalse(((Map<?, ?>) rows.get("[1]").val()).containsKey("score"));
+        assertEquals(rows.toString(), columns.toString());
+        assertEquals(List.of(1, 3), columns.integers("$[?(@.active == true)].id"));
+
+        StringWriter out = new StringWriter();
+        assertTrue(rows.writeCsv(out, CsvOptions.csv()));
+        JsonQ again = JsonQ.fromCsv(new ByteArrayInputStream(out.toString().getBytes(StandardCharsets.UTF_8)), CsvOptions.csv());
+        assertTrue(rows.equalsStructurally(again), out.toString());
+        assertTrue(out.toString().startsWith("id,name,score,active,zip,note\r\n1,Ann,9.5,true,00123,"));
+
+        Path tsv = dir.resolve("people.tsv");
+        assertTrue(columns.writeCsv(tsv, CsvOptions.tsv().header(false)));
+        JsonQ unnamed = JsonQ.fromCsv(tsv, CsvOptions.tsv().header(false).inferTypes(false));
+        assertEquals(List.of("1", "2", "3"), unnamed.getStrings("[*].A"));
+        assertEquals("Ann", unnamed.get("[0].B").val());
+
+        List<List<Object>> sheet = List.of(List.of("region", "sales", "region"), List.of("east", "12", "x"), List.of("west", 30, ""));
+        JsonQ fromSheet = JsonQ.fromRows(sheet, CsvOptions.csv());
+        assertEquals(42.0, fromSheet.sum("[*].sales"));
+        assertEquals("x", fromSheet.get("[0].region_2").val());
+        assertEquals(List.of("east", "west"), fromSheet.getStrings("[*].region"));
+
+        for (String json : new String[]{"[{}, {\"k1\": \"x\"}]", "[{\"n\": 1}, {}, {\"n\": 3}]", "[{}, {}]"}) {
+            StringWriter sparse = new StringWriter();
+            assertTrue(JsonQ.fromJson(json).writeCsv(sparse, CsvOptions.csv()));
+            JsonQ back = JsonQ.fromCsv(new ByteArrayInputStream(sparse.toString().getBytes(StandardCharsets.UTF_8)), CsvOptions.csv());
+            assertEquals(JsonQ.fromJson(json).<List<?>>val().size(), back.<List<?>>val().size(), sparse.toString());
+        }
+        StringWriter single = new StringWriter();
+        assertTrue(JsonQ.fromJson("[{}, {\"k1\": \"x\"}]").writeCsv(single, CsvOptions.csv()));
+        assertEquals("k1\r\n\"\"\r\nx\r\n", single.toString());
+    }
 }